@@ -0,0 +1,304 @@
+/*
+ * Copyright (C) 2017 Raul Hernandez Lopez @raulh82vlc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.raulh82vlc.face_detection_sample.cascade;
+
+import com.raulh82vlc.face_detection_sample.model.FaceRects;
+
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * <p>Pure Java multi scale detector of a {@link HaarCascade}, with no native code.
+ * As OpenCV does with {@code CASCADE_SCALE_IMAGE}, the image is resized once per scale
+ * and the window is evaluated at the cascade size over the integral images of that level.
+ * Scale levels are independent, so they run in parallel on a {@link ForkJoinPool}
+ * and their hits are grouped once all of them are joined.
+ * Level buffers are kept between calls, so a detector runs one detection at a time</p>
+ *
+ * @author Raul Hernandez Lopez.
+ */
+public class CascadeDetector {
+    // windows whose standard deviation is below this are flat and skipped, as OpenCV does
+    private static final double MIN_WINDOW_DEVIATION = 10;
+
+    private final HaarCascade cascade;
+    private final ForkJoinPool pool;
+    private final boolean hasTiltedFeatures;
+    // Scale levels reused across calls, only the first levelCount are used by the last call
+    private final List<ScaleLevel> levels = new ArrayList<>();
+    private final List<ScaleLevel> activeLevels = new ArrayList<>();
+    private final FaceRects candidates = new FaceRects();
+    private final RectGrouping grouping = new RectGrouping();
+    private GrayImage image;
+
+    public CascadeDetector(HaarCascade cascade, ForkJoinPool pool) {
+        if (cascade == null || pool == null) {
+            throw new IllegalArgumentException("Cascade and pool must be instantiated");
+        }
+        this.cascade = cascade;
+        this.pool = pool;
+        this.hasTiltedFeatures = cascade.hasTiltedFeatures();
+    }
+
+    public HaarCascade getCascade() {
+        return cascade;
+    }
+
+    /**
+     * Same contract as OpenCV {@code detectMultiScale} with square size bounds
+     *
+     * @param minSize smallest object size in pixels
+     * @param maxSize biggest object size in pixels, 0 for no limit
+     */
+    public void detectMultiScale(GrayImage image, FaceRects objects, double scaleFactor,
+                                 int minNeighbors, int minSize, int maxSize) {
+        if (scaleFactor <= 1) {
+            throw new IllegalArgumentException("Scale factor must be bigger than 1");
+        }
+        objects.clear();
+        this.image = image;
+        activeLevels.clear();
+        int windowWidth = cascade.windowWidth;
+        int windowHeight = cascade.windowHeight;
+        for (double factor = 1; ; factor *= scaleFactor) {
+            int scaledWidth = (int) Math.round(image.getWidth() / factor);
+            int scaledHeight = (int) Math.round(image.getHeight() / factor);
+            int objectWidth = (int) Math.round(windowWidth * factor);
+            int objectHeight = (int) Math.round(windowHeight * factor);
+            if (scaledWidth < windowWidth || scaledHeight < windowHeight) {
+                break;
+            }
+            if (maxSize > 0 && (objectWidth > maxSize || objectHeight > maxSize)) {
+                break;
+            }
+            if (objectWidth < minSize || objectHeight < minSize) {
+                continue;
+            }
+            if (levels.size() == activeLevels.size()) {
+                levels.add(new ScaleLevel());
+            }
+            ScaleLevel level = levels.get(activeLevels.size());
+            level.reinitialize();
+            level.set(factor, scaledWidth, scaledHeight);
+            activeLevels.add(level);
+        }
+        if (activeLevels.isEmpty()) {
+            return;
+        }
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(activeLevels);
+            }
+        });
+        candidates.clear();
+        for (int i = 0; i < activeLevels.size(); i++) {
+            FaceRects hits = activeLevels.get(i).hits;
+            for (int j = 0; j < hits.size(); j++) {
+                candidates.add(hits.getX(j), hits.getY(j), hits.getWidth(j), hits.getHeight(j));
+            }
+        }
+        grouping.group(candidates, minNeighbors, objects);
+        this.image = null;
+    }
+
+    /**
+     * <p>One scale of the image with its own resized copy, integral images and hits</p>
+     */
+    private final class ScaleLevel extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private double factor;
+        private final GrayImage scaled = new GrayImage();
+        private byte[] scaledPixels = new byte[0];
+        private final IntegralImage integral = new IntegralImage();
+        // rect corners as offsets from the window origin for the current integral stride
+        private int[] rectOffsets = new int[0];
+        private int offsetsStride = -1;
+        final FaceRects hits = new FaceRects();
+
+        void set(double factor, int width, int height) {
+            this.factor = factor;
+            if (scaledPixels.length < width * height) {
+                scaledPixels = new byte[width * height];
+            }
+            scaled.set(scaledPixels, 0, width, width, height);
+        }
+
+        @Override
+        protected void compute() {
+            hits.clear();
+            GrayImage levelImage = image;
+            if (factor > 1) {
+                resize(image, scaled);
+                levelImage = scaled;
+            }
+            integral.compute(levelImage, hasTiltedFeatures);
+            updateRectOffsets();
+            scan();
+        }
+
+        private void updateRectOffsets() {
+            int stride = integral.getStride();
+            if (stride == offsetsStride) {
+                return;
+            }
+            IntBuffer rects = cascade.rects;
+            if (rectOffsets.length < rects.limit()) {
+                rectOffsets = new int[rects.limit()];
+            }
+            int features = cascade.getFeatureCount();
+            for (int f = 0; f < features; f++) {
+                boolean tilted = cascade.featureTilted.get(f) != 0;
+                for (int r = cascade.featureRectStart.get(f);
+                     r < cascade.featureRectStart.get(f + 1); r++) {
+                    int i = r * 4;
+                    int x = rects.get(i);
+                    int y = rects.get(i + 1);
+                    int w = rects.get(i + 2);
+                    int h = rects.get(i + 3);
+                    if (tilted) {
+                        rectOffsets[i] = y * stride + x;
+                        rectOffsets[i + 1] = (y + h) * stride + x - h;
+                        rectOffsets[i + 2] = (y + w) * stride + x + w;
+                        rectOffsets[i + 3] = (y + w + h) * stride + x + w - h;
+                    } else {
+                        rectOffsets[i] = y * stride + x;
+                        rectOffsets[i + 1] = y * stride + x + w;
+                        rectOffsets[i + 2] = (y + h) * stride + x;
+                        rectOffsets[i + 3] = (y + h) * stride + x + w;
+                    }
+                }
+            }
+            offsetsStride = stride;
+        }
+
+        private void scan() {
+            int windowWidth = cascade.windowWidth;
+            int windowHeight = cascade.windowHeight;
+            int step = factor > 2 ? 1 : 2;
+            int objectWidth = (int) Math.round(windowWidth * factor);
+            int objectHeight = (int) Math.round(windowHeight * factor);
+            int stride = integral.getStride();
+            int[] sum = integral.sum();
+            long[] squaredSum = integral.squaredSum();
+            // normalisation rect is the window without its 1 pixel border
+            int normTopLeft = stride + 1;
+            int normTopRight = normTopLeft + windowWidth - 2;
+            int normBottomLeft = normTopLeft + (windowHeight - 2) * stride;
+            int normBottomRight = normBottomLeft + windowWidth - 2;
+            double area = (windowWidth - 2) * (windowHeight - 2);
+            for (int y = 0; y + windowHeight <= integral.getHeight(); y += step) {
+                for (int x = 0; x + windowWidth <= integral.getWidth(); x += step) {
+                    int window = y * stride + x;
+                    int valueSum = sum[window + normTopLeft] - sum[window + normTopRight]
+                            - sum[window + normBottomLeft] + sum[window + normBottomRight];
+                    long valueSquaredSum = squaredSum[window + normTopLeft]
+                            - squaredSum[window + normTopRight]
+                            - squaredSum[window + normBottomLeft]
+                            + squaredSum[window + normBottomRight];
+                    double normFactor = area * valueSquaredSum - (double) valueSum * valueSum;
+                    if (normFactor <= 0) {
+                        continue;
+                    }
+                    normFactor = Math.sqrt(normFactor);
+                    // normFactor is area times the standard deviation
+                    if (normFactor < area * MIN_WINDOW_DEVIATION) {
+                        continue;
+                    }
+                    if (passesStages(window, 1 / normFactor)) {
+                        hits.add((int) Math.round(x * factor), (int) Math.round(y * factor),
+                                objectWidth, objectHeight);
+                    }
+                }
+            }
+        }
+
+        private boolean passesStages(int window, double inverseNormFactor) {
+            HaarCascade c = cascade;
+            int[] sum = integral.sum();
+            int[] tiltedSum = integral.tilted();
+            int stages = c.getStageCount();
+            for (int stage = 0; stage < stages; stage++) {
+                double stageSum = 0;
+                int lastClassifier = c.stageClassifierStart.get(stage + 1);
+                for (int classifier = c.stageClassifierStart.get(stage);
+                     classifier < lastClassifier; classifier++) {
+                    int root = c.classifierNodeStart.get(classifier);
+                    int index = 0;
+                    do {
+                        int node = root + index;
+                        int feature = c.nodeFeatures.get(node);
+                        int[] integralSum = c.featureTilted.get(feature) != 0 ? tiltedSum : sum;
+                        double value = 0;
+                        int lastRect = c.featureRectStart.get(feature + 1);
+                        for (int r = c.featureRectStart.get(feature); r < lastRect; r++) {
+                            int i = r * 4;
+                            value += c.rectWeights.get(r) * (integralSum[window + rectOffsets[i]]
+                                    - integralSum[window + rectOffsets[i + 1]]
+                                    - integralSum[window + rectOffsets[i + 2]]
+                                    + integralSum[window + rectOffsets[i + 3]]);
+                        }
+                        index = value * inverseNormFactor < c.nodeThresholds.get(node)
+                                ? c.nodeLeft.get(node) : c.nodeRight.get(node);
+                    } while (index > 0);
+                    stageSum += c.leafValues.get(c.classifierLeafStart.get(classifier) - index);
+                }
+                if (stageSum < c.stageThresholds.get(stage)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Bilinear resize with pixel centres aligned, as OpenCV {@code INTER_LINEAR}
+     */
+    static void resize(GrayImage source, GrayImage target) {
+        byte[] src = source.getPixels();
+        byte[] dst = target.getPixels();
+        int sourceWidth = source.getWidth();
+        int sourceHeight = source.getHeight();
+        int width = target.getWidth();
+        int height = target.getHeight();
+        float scaleX = (float) sourceWidth / width;
+        float scaleY = (float) sourceHeight / height;
+        for (int y = 0; y < height; y++) {
+            float sy = Math.max(0f, (y + 0.5f) * scaleY - 0.5f);
+            int y0 = Math.min((int) sy, sourceHeight - 1);
+            int y1 = Math.min(y0 + 1, sourceHeight - 1);
+            float fy = sy - y0;
+            int row0 = source.getOffset() + y0 * source.getStride();
+            int row1 = source.getOffset() + y1 * source.getStride();
+            int target0 = target.getOffset() + y * target.getStride();
+            for (int x = 0; x < width; x++) {
+                float sx = Math.max(0f, (x + 0.5f) * scaleX - 0.5f);
+                int x0 = Math.min((int) sx, sourceWidth - 1);
+                int x1 = Math.min(x0 + 1, sourceWidth - 1);
+                float fx = sx - x0;
+                float top = (src[row0 + x0] & 0xff) * (1 - fx) + (src[row0 + x1] & 0xff) * fx;
+                float bottom = (src[row1 + x0] & 0xff) * (1 - fx)
+                        + (src[row1 + x1] & 0xff) * fx;
+                dst[target0 + x] = (byte) Math.round(top * (1 - fy) + bottom * fy);
+            }
+        }
+    }
+}
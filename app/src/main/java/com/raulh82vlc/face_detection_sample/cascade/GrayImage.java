@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2017 Raul Hernandez Lopez @raulh82vlc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.raulh82vlc.face_detection_sample.cascade;
+
+/**
+ * <p>8 bit gray image over a byte array, it can be a region of a bigger image
+ * as rows are {@code stride} bytes apart starting at {@code offset}</p>
+ *
+ * @author Raul Hernandez Lopez.
+ */
+public final class GrayImage {
+    private byte[] pixels;
+    private int offset;
+    private int stride;
+    private int width;
+    private int height;
+
+    public GrayImage() {
+        this(new byte[0], 0, 0);
+    }
+
+    public GrayImage(byte[] pixels, int width, int height) {
+        set(pixels, 0, width, width, height);
+    }
+
+    public void set(byte[] pixels, int offset, int stride, int width, int height) {
+        if (width < 0 || height < 0 || stride < width || offset < 0
+                || (height > 0 && offset + (height - 1) * stride + width > pixels.length)) {
+            throw new IllegalArgumentException("Image " + width + "x" + height
+                    + " does not fit in " + pixels.length + " bytes");
+        }
+        this.pixels = pixels;
+        this.offset = offset;
+        this.stride = stride;
+        this.width = width;
+        this.height = height;
+    }
+
+    public byte[] getPixels() {
+        return pixels;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public int getStride() {
+        return stride;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int get(int x, int y) {
+        return pixels[offset + y * stride + x] & 0xff;
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2017 Raul Hernandez Lopez @raulh82vlc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.raulh82vlc.face_detection_sample.cascade;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * <p>Boosted Haar cascade stored as flat primitive tables, stages hold weak classifiers,
+ * which are decision trees of nodes testing one feature each. A child index bigger
+ * than zero is another node of the same tree, otherwise its negation is a leaf of the tree.
+ * Features are up to three weighted rectangles, upright or tilted 45 degrees.
+ * Tables are buffers read with absolute gets only, either wrapping parsed arrays or views
+ * of a memory mapped {@link HaarCascadeBinary}, which is then evaluated without a copy</p>
+ *
+ * @author Raul Hernandez Lopez.
+ */
+public final class HaarCascade {
+    // Detection window
+    final int windowWidth;
+    final int windowHeight;
+    // Stages, classifiers of stage s are [stageClassifierStart[s], stageClassifierStart[s + 1])
+    final FloatBuffer stageThresholds;
+    final IntBuffer stageClassifierStart;
+    // Weak classifiers, first node and first leaf of each one
+    final IntBuffer classifierNodeStart;
+    final IntBuffer classifierLeafStart;
+    // Tree nodes
+    final IntBuffer nodeFeatures;
+    final FloatBuffer nodeThresholds;
+    final IntBuffer nodeLeft;
+    final IntBuffer nodeRight;
+    final FloatBuffer leafValues;
+    // Features, rects of feature f are [featureRectStart[f], featureRectStart[f + 1])
+    final IntBuffer featureRectStart;
+    // 1 when tilted, 0 otherwise
+    final ByteBuffer featureTilted;
+    // x, y, width and height per rect
+    final IntBuffer rects;
+    final FloatBuffer rectWeights;
+
+    HaarCascade(int windowWidth, int windowHeight,
+                float[] stageThresholds, int[] stageClassifierStart,
+                int[] classifierNodeStart, int[] classifierLeafStart,
+                int[] nodeFeatures, float[] nodeThresholds, int[] nodeLeft, int[] nodeRight,
+                float[] leafValues,
+                int[] featureRectStart, boolean[] featureTilted, int[] rects,
+                float[] rectWeights) {
+        this(windowWidth, windowHeight,
+                FloatBuffer.wrap(stageThresholds), IntBuffer.wrap(stageClassifierStart),
+                IntBuffer.wrap(classifierNodeStart), IntBuffer.wrap(classifierLeafStart),
+                IntBuffer.wrap(nodeFeatures), FloatBuffer.wrap(nodeThresholds),
+                IntBuffer.wrap(nodeLeft), IntBuffer.wrap(nodeRight),
+                FloatBuffer.wrap(leafValues),
+                IntBuffer.wrap(featureRectStart), toBytes(featureTilted), IntBuffer.wrap(rects),
+                FloatBuffer.wrap(rectWeights));
+    }
+
+    HaarCascade(int windowWidth, int windowHeight,
+                FloatBuffer stageThresholds, IntBuffer stageClassifierStart,
+                IntBuffer classifierNodeStart, IntBuffer classifierLeafStart,
+                IntBuffer nodeFeatures, FloatBuffer nodeThresholds, IntBuffer nodeLeft,
+                IntBuffer nodeRight, FloatBuffer leafValues,
+                IntBuffer featureRectStart, ByteBuffer featureTilted, IntBuffer rects,
+                FloatBuffer rectWeights) {
+        if (windowWidth <= 2 || windowHeight <= 2) {
+            throw new IllegalArgumentException("Invalid cascade window "
+                    + windowWidth + "x" + windowHeight);
+        }
+        this.windowWidth = windowWidth;
+        this.windowHeight = windowHeight;
+        this.stageThresholds = stageThresholds;
+        this.stageClassifierStart = stageClassifierStart;
+        this.classifierNodeStart = classifierNodeStart;
+        this.classifierLeafStart = classifierLeafStart;
+        this.nodeFeatures = nodeFeatures;
+        this.nodeThresholds = nodeThresholds;
+        this.nodeLeft = nodeLeft;
+        this.nodeRight = nodeRight;
+        this.leafValues = leafValues;
+        this.featureRectStart = featureRectStart;
+        this.featureTilted = featureTilted;
+        this.rects = rects;
+        this.rectWeights = rectWeights;
+    }
+
+    public int getWindowWidth() {
+        return windowWidth;
+    }
+
+    public int getWindowHeight() {
+        return windowHeight;
+    }
+
+    public int getStageCount() {
+        return stageThresholds.limit();
+    }
+
+    public int getFeatureCount() {
+        return featureTilted.limit();
+    }
+
+    /**
+     * @return true when any feature needs the tilted integral image
+     */
+    public boolean hasTiltedFeatures() {
+        for (int i = 0; i < featureTilted.limit(); i++) {
+            if (featureTilted.get(i) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static ByteBuffer toBytes(boolean[] values) {
+        ByteBuffer bytes = ByteBuffer.allocate(values.length);
+        for (int i = 0; i < values.length; i++) {
+            bytes.put(i, (byte) (values[i] ? 1 : 0));
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2017 Raul Hernandez Lopez @raulh82vlc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.raulh82vlc.face_detection_sample.cascade;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * <p>Compact binary layout of a {@link HaarCascade}: a header with the window size and the
+ * table sizes followed by the flat tables, little endian and 4 bytes aligned, so loading
+ * only takes a view of each table of a memory mapped file, no copy and no parsing at all.
+ * The cascade keeps the mapping alive while it is used</p>
+ * <pre>
+ * int magic, version, windowWidth, windowHeight
+ * int stages, classifiers, nodes, leaves, features, rects
+ * float[stages] stageThresholds, int[stages + 1] stageClassifierStart
+ * int[classifiers + 1] classifierNodeStart, int[classifiers + 1] classifierLeafStart
+ * int[nodes] nodeFeatures, float[nodes] nodeThresholds, int[nodes] nodeLeft, nodeRight
+ * float[leaves] leafValues
+ * int[features + 1] featureRectStart, byte[features] featureTilted padded to 4 bytes
+ * int[rects * 4] rects, float[rects] rectWeights
+ * </pre>
+ *
+ * @author Raul Hernandez Lopez.
+ */
+public final class HaarCascadeBinary {
+    // "HAAR" read as a little endian int
+    private static final int MAGIC = 0x52414148;
+    private static final int VERSION = 1;
+    private static final int HEADER_INTS = 10;
+
+    private HaarCascadeBinary() {
+
+    }
+
+    public static void write(HaarCascade cascade, OutputStream output) throws IOException {
+        int features = cascade.getFeatureCount();
+        int tiltedBytes = align(features);
+        int size = 4 * (HEADER_INTS
+                + cascade.stageThresholds.limit() + cascade.stageClassifierStart.limit()
+                + cascade.classifierNodeStart.limit() + cascade.classifierLeafStart.limit()
+                + cascade.nodeFeatures.limit() * 4 + cascade.leafValues.limit()
+                + cascade.featureRectStart.limit()
+                + cascade.rects.limit() + cascade.rectWeights.limit()) + tiltedBytes;
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(VERSION)
+                .putInt(cascade.windowWidth).putInt(cascade.windowHeight)
+                .putInt(cascade.stageThresholds.limit())
+                .putInt(cascade.classifierNodeStart.limit() - 1)
+                .putInt(cascade.nodeFeatures.limit())
+                .putInt(cascade.leafValues.limit())
+                .putInt(features)
+                .putInt(cascade.rectWeights.limit());
+        putFloats(buffer, cascade.stageThresholds);
+        putInts(buffer, cascade.stageClassifierStart);
+        putInts(buffer, cascade.classifierNodeStart);
+        putInts(buffer, cascade.classifierLeafStart);
+        putInts(buffer, cascade.nodeFeatures);
+        putFloats(buffer, cascade.nodeThresholds);
+        putInts(buffer, cascade.nodeLeft);
+        putInts(buffer, cascade.nodeRight);
+        putFloats(buffer, cascade.leafValues);
+        putInts(buffer, cascade.featureRectStart);
+        for (int i = 0; i < tiltedBytes; i++) {
+            buffer.put(i < features ? cascade.featureTilted.get(i) : 0);
+        }
+        putInts(buffer, cascade.rects);
+        putFloats(buffer, cascade.rectWeights);
+        output.write(buffer.array(), 0, buffer.position());
+    }
+
+    public static HaarCascade map(File file) throws IOException {
+        FileInputStream input = new FileInputStream(file);
+        try {
+            return map(input.getChannel(), 0, file.length());
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Maps a region of a file, e.g. an uncompressed asset from its {@code AssetFileDescriptor}
+     */
+    public static HaarCascade map(FileChannel channel, long offset, long length)
+            throws IOException {
+        return read(channel.map(FileChannel.MapMode.READ_ONLY, offset, length));
+    }
+
+    public static HaarCascade read(ByteBuffer source) throws IOException {
+        ByteBuffer buffer = source.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Not a binary Haar cascade");
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported binary Haar cascade version " + version);
+            }
+            int windowWidth = buffer.getInt();
+            int windowHeight = buffer.getInt();
+            int stages = count(buffer);
+            int classifiers = count(buffer);
+            int nodes = count(buffer);
+            int leaves = count(buffer);
+            int features = count(buffer);
+            int rects = count(buffer);
+
+            FloatBuffer stageThresholds = floatTable(buffer, stages);
+            IntBuffer stageClassifierStart = intTable(buffer, stages + 1);
+            IntBuffer classifierNodeStart = intTable(buffer, classifiers + 1);
+            IntBuffer classifierLeafStart = intTable(buffer, classifiers + 1);
+            IntBuffer nodeFeatures = intTable(buffer, nodes);
+            FloatBuffer nodeThresholds = floatTable(buffer, nodes);
+            IntBuffer nodeLeft = intTable(buffer, nodes);
+            IntBuffer nodeRight = intTable(buffer, nodes);
+            FloatBuffer leafValues = floatTable(buffer, leaves);
+            IntBuffer featureRectStart = intTable(buffer, features + 1);
+            ByteBuffer featureTilted = table(buffer, features, align(features));
+            IntBuffer rectValues = intTable(buffer, rects * 4);
+            FloatBuffer rectWeights = floatTable(buffer, rects);
+
+            if (stageClassifierStart.get(stages) != classifiers
+                    || classifierNodeStart.get(classifiers) != nodes
+                    || classifierLeafStart.get(classifiers) != leaves
+                    || featureRectStart.get(features) != rects) {
+                throw new IOException("Corrupted binary Haar cascade");
+            }
+            return new HaarCascade(windowWidth, windowHeight,
+                    stageThresholds, stageClassifierStart,
+                    classifierNodeStart, classifierLeafStart,
+                    nodeFeatures, nodeThresholds, nodeLeft, nodeRight, leafValues,
+                    featureRectStart, featureTilted, rectValues, rectWeights);
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("Truncated binary Haar cascade", e);
+        }
+    }
+
+    private static int count(ByteBuffer buffer) throws IOException {
+        int count = buffer.getInt();
+        // every value takes at least one byte, a bigger count can only be corruption
+        if (count < 0 || count > buffer.remaining()) {
+            throw new IOException("Corrupted binary Haar cascade");
+        }
+        return count;
+    }
+
+    private static int align(int bytes) {
+        return (bytes + 3) & ~3;
+    }
+
+    private static void putInts(ByteBuffer buffer, IntBuffer values) {
+        IntBuffer all = values.duplicate();
+        all.rewind();
+        buffer.asIntBuffer().put(all);
+        buffer.position(buffer.position() + values.limit() * 4);
+    }
+
+    private static void putFloats(ByteBuffer buffer, FloatBuffer values) {
+        FloatBuffer all = values.duplicate();
+        all.rewind();
+        buffer.asFloatBuffer().put(all);
+        buffer.position(buffer.position() + values.limit() * 4);
+    }
+
+    private static IntBuffer intTable(ByteBuffer buffer, int count) {
+        return table(buffer, count * 4, count * 4).asIntBuffer();
+    }
+
+    private static FloatBuffer floatTable(ByteBuffer buffer, int count) {
+        return table(buffer, count * 4, count * 4).asFloatBuffer();
+    }
+
+    /**
+     * View of the next table, sharing the content of the buffer, which moves past it
+     *
+     * @param stored bytes taken by the table, padding included
+     */
+    private static ByteBuffer table(ByteBuffer buffer, int bytes, int stored) {
+        if (stored > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        ByteBuffer table = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+        table.limit(bytes);
+        buffer.position(buffer.position() + stored);
+        return table;
+    }
+}
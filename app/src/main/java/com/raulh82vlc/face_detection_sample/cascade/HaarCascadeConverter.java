@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2017 Raul Hernandez Lopez @raulh82vlc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.raulh82vlc.face_detection_sample.cascade;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * <p>Offline converter of cascade XML files into the {@link HaarCascadeBinary} layout, e.g.
+ * {@code java HaarCascadeConverter haarcascade_frontalface_alt2.xml
+ * app/src/main/assets/cascades/haarcascade_frontalface_alt2.bin}</p>
+ *
+ * @author Raul Hernandez Lopez.
+ */
+public final class HaarCascadeConverter {
+
+    private HaarCascadeConverter() {
+
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: HaarCascadeConverter <cascade.xml> <cascade.bin>");
+            System.exit(1);
+        }
+        convert(new File(args[0]), new File(args[1]));
+    }
+
+    public static void convert(File xmlFile, File binaryFile) throws IOException {
+        HaarCascade cascade = HaarCascadeXmlParser.parse(xmlFile);
+        OutputStream output = new BufferedOutputStream(new FileOutputStream(binaryFile));
+        try {
+            HaarCascadeBinary.write(cascade, output);
+        } finally {
+            output.close();
+        }
+    }
+}
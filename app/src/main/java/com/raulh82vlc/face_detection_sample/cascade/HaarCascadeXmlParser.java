@@ -0,0 +1,308 @@
+/*
+ * Copyright (C) 2017 Raul Hernandez Lopez @raulh82vlc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.raulh82vlc.face_detection_sample.cascade;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+/**
+ * <p>Reads OpenCV Haar cascade XML files into a {@link HaarCascade}. Supports the current
+ * format, e.g. {@code haarcascade_eye_tree_eyeglasses}, as well as the old
+ * {@code opencv-haar-classifier} one, e.g. {@code haarcascade_frontalface_alt2}</p>
+ *
+ * @author Raul Hernandez Lopez.
+ */
+public final class HaarCascadeXmlParser {
+
+    private static final String OLD_FORMAT_TYPE = "opencv-haar-classifier";
+    private static final String ITEM = "_";
+
+    // Cascade being built
+    private final IntArray stageClassifierStart = new IntArray();
+    private final FloatArray stageThresholds = new FloatArray();
+    private final IntArray classifierNodeStart = new IntArray();
+    private final IntArray classifierLeafStart = new IntArray();
+    private final IntArray nodeFeatures = new IntArray();
+    private final FloatArray nodeThresholds = new FloatArray();
+    private final IntArray nodeLeft = new IntArray();
+    private final IntArray nodeRight = new IntArray();
+    private final FloatArray leafValues = new FloatArray();
+    private final IntArray featureRectStart = new IntArray();
+    private final List<Boolean> featureTilted = new ArrayList<>();
+    private final IntArray rects = new IntArray();
+    private final FloatArray rectWeights = new FloatArray();
+
+    private HaarCascadeXmlParser() {
+
+    }
+
+    public static HaarCascade parse(File file) throws IOException {
+        InputStream input = new BufferedInputStream(new FileInputStream(file));
+        try {
+            return parse(input);
+        } finally {
+            input.close();
+        }
+    }
+
+    public static HaarCascade parse(InputStream input) throws IOException {
+        Element storage;
+        try {
+            storage = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                    .parse(input).getDocumentElement();
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new IOException("Invalid cascade XML", e);
+        }
+        Element cascade = firstChildElement(storage);
+        if (cascade == null) {
+            throw new IOException("Empty cascade XML");
+        }
+        HaarCascadeXmlParser parser = new HaarCascadeXmlParser();
+        if (OLD_FORMAT_TYPE.equals(cascade.getAttribute("type_id"))) {
+            return parser.parseOldFormat(cascade);
+        }
+        return parser.parseNewFormat(cascade);
+    }
+
+    private HaarCascade parseNewFormat(Element cascade) throws IOException {
+        String stageType = text(child(cascade, "stageType"));
+        String featureType = text(child(cascade, "featureType"));
+        if (!"BOOST".equals(stageType) || !"HAAR".equals(featureType)) {
+            throw new IOException("Unsupported cascade " + stageType + "/" + featureType
+                    + ", only boosted HAAR cascades are supported");
+        }
+        int width = Integer.parseInt(text(child(cascade, "width")));
+        int height = Integer.parseInt(text(child(cascade, "height")));
+        for (Element stage : items(child(cascade, "stages"))) {
+            stageClassifierStart.add(classifierNodeStart.size());
+            stageThresholds.add(Float.parseFloat(text(child(stage, "stageThreshold"))));
+            for (Element classifier : items(child(stage, "weakClassifiers"))) {
+                classifierNodeStart.add(nodeFeatures.size());
+                classifierLeafStart.add(leafValues.size());
+                String[] nodes = tokens(child(classifier, "internalNodes"));
+                if (nodes.length % 4 != 0) {
+                    throw new IOException("Malformed internal nodes");
+                }
+                for (int i = 0; i < nodes.length; i += 4) {
+                    nodeLeft.add(Integer.parseInt(nodes[i]));
+                    nodeRight.add(Integer.parseInt(nodes[i + 1]));
+                    nodeFeatures.add(Integer.parseInt(nodes[i + 2]));
+                    nodeThresholds.add(Float.parseFloat(nodes[i + 3]));
+                }
+                for (String leaf : tokens(child(classifier, "leafValues"))) {
+                    leafValues.add(Float.parseFloat(leaf));
+                }
+            }
+        }
+        for (Element feature : items(child(cascade, "features"))) {
+            addFeature(feature);
+        }
+        return build(width, height);
+    }
+
+    private HaarCascade parseOldFormat(Element cascade) throws IOException {
+        String[] size = tokens(child(cascade, "size"));
+        int width = Integer.parseInt(size[0]);
+        int height = Integer.parseInt(size[1]);
+        int stageIndex = 0;
+        for (Element stage : items(child(cascade, "stages"))) {
+            Element parent = optionalChild(stage, "parent");
+            if (parent != null && Integer.parseInt(text(parent)) != stageIndex - 1) {
+                throw new IOException("Tree shaped cascades are not supported");
+            }
+            stageClassifierStart.add(classifierNodeStart.size());
+            stageThresholds.add(Float.parseFloat(text(child(stage, "stage_threshold"))));
+            for (Element tree : items(child(stage, "trees"))) {
+                classifierNodeStart.add(nodeFeatures.size());
+                classifierLeafStart.add(leafValues.size());
+                int treeLeaves = 0;
+                for (Element node : items(tree)) {
+                    // every old format node holds its own feature
+                    nodeFeatures.add(featureTilted.size());
+                    addFeature(child(node, "feature"));
+                    nodeThresholds.add(Float.parseFloat(text(child(node, "threshold"))));
+                    Element leftNode = optionalChild(node, "left_node");
+                    if (leftNode != null) {
+                        nodeLeft.add(Integer.parseInt(text(leftNode)));
+                    } else {
+                        leafValues.add(Float.parseFloat(text(child(node, "left_val"))));
+                        nodeLeft.add(-treeLeaves++);
+                    }
+                    Element rightNode = optionalChild(node, "right_node");
+                    if (rightNode != null) {
+                        nodeRight.add(Integer.parseInt(text(rightNode)));
+                    } else {
+                        leafValues.add(Float.parseFloat(text(child(node, "right_val"))));
+                        nodeRight.add(-treeLeaves++);
+                    }
+                }
+            }
+            stageIndex++;
+        }
+        return build(width, height);
+    }
+
+    private void addFeature(Element feature) throws IOException {
+        featureRectStart.add(rectWeights.size());
+        for (Element rect : items(child(feature, "rects"))) {
+            String[] values = tokens(rect);
+            if (values.length != 5) {
+                throw new IOException("Malformed feature rect");
+            }
+            for (int i = 0; i < 4; i++) {
+                rects.add(Integer.parseInt(values[i]));
+            }
+            rectWeights.add(Float.parseFloat(values[4]));
+        }
+        Element tilted = optionalChild(feature, "tilted");
+        featureTilted.add(tilted != null && Integer.parseInt(text(tilted)) != 0);
+    }
+
+    private HaarCascade build(int width, int height) throws IOException {
+        if (stageThresholds.size() == 0) {
+            throw new IOException("Cascade without stages");
+        }
+        stageClassifierStart.add(classifierNodeStart.size());
+        classifierNodeStart.add(nodeFeatures.size());
+        classifierLeafStart.add(leafValues.size());
+        featureRectStart.add(rectWeights.size());
+        boolean[] tilted = new boolean[featureTilted.size()];
+        for (int i = 0; i < tilted.length; i++) {
+            tilted[i] = featureTilted.get(i);
+        }
+        return new HaarCascade(width, height,
+                stageThresholds.toArray(), stageClassifierStart.toArray(),
+                classifierNodeStart.toArray(), classifierLeafStart.toArray(),
+                nodeFeatures.toArray(), nodeThresholds.toArray(),
+                nodeLeft.toArray(), nodeRight.toArray(), leafValues.toArray(),
+                featureRectStart.toArray(), tilted, rects.toArray(), rectWeights.toArray());
+    }
+
+    private static Element firstChildElement(Element parent) {
+        NodeList children = parent.getChildNodes();
+        for (int i = 0; i < children.getLength(); i++) {
+            if (children.item(i).getNodeType() == Node.ELEMENT_NODE) {
+                return (Element) children.item(i);
+            }
+        }
+        return null;
+    }
+
+    private static Element optionalChild(Element parent, String name) {
+        NodeList children = parent.getChildNodes();
+        for (int i = 0; i < children.getLength(); i++) {
+            Node node = children.item(i);
+            if (node.getNodeType() == Node.ELEMENT_NODE && name.equals(node.getNodeName())) {
+                return (Element) node;
+            }
+        }
+        return null;
+    }
+
+    private static Element child(Element parent, String name) throws IOException {
+        Element child = optionalChild(parent, name);
+        if (child == null) {
+            throw new IOException("Missing <" + name + "> in <" + parent.getNodeName() + ">");
+        }
+        return child;
+    }
+
+    private static List<Element> items(Element parent) {
+        List<Element> items = new ArrayList<>();
+        NodeList children = parent.getChildNodes();
+        for (int i = 0; i < children.getLength(); i++) {
+            Node node = children.item(i);
+            if (node.getNodeType() == Node.ELEMENT_NODE && ITEM.equals(node.getNodeName())) {
+                items.add((Element) node);
+            }
+        }
+        return items;
+    }
+
+    private static String text(Element element) {
+        return element.getTextContent().trim();
+    }
+
+    private static String[] tokens(Element element) {
+        String text = text(element);
+        return text.isEmpty() ? new String[0] : text.split("\\s+");
+    }
+
+    /**
+     * Growable int array, avoids boxing the big node and rect tables
+     */
+    private static final class IntArray {
+        private int[] values = new int[64];
+        private int size = 0;
+
+        void add(int value) {
+            if (size == values.length) {
+                int[] grown = new int[size * 2];
+                System.arraycopy(values, 0, grown, 0, size);
+                values = grown;
+            }
+            values[size++] = value;
+        }
+
+        int size() {
+            return size;
+        }
+
+        int[] toArray() {
+            int[] array = new int[size];
+            System.arraycopy(values, 0, array, 0, size);
+            return array;
+        }
+    }
+
+    private static final class FloatArray {
+        private float[] values = new float[64];
+        private int size = 0;
+
+        void add(float value) {
+            if (size == values.length) {
+                float[] grown = new float[size * 2];
+                System.arraycopy(values, 0, grown, 0, size);
+                values = grown;
+            }
+            values[size++] = value;
+        }
+
+        int size() {
+            return size;
+        }
+
+        float[] toArray() {
+            float[] array = new float[size];
+            System.arraycopy(values, 0, array, 0, size);
+            return array;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2017 Raul Hernandez Lopez @raulh82vlc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.raulh82vlc.face_detection_sample.cascade;
+
+/**
+ * <p>Integral, squared integral and 45 degrees tilted integral images of a gray image,
+ * with one extra leading row and column of zeros as OpenCV {@code integral} does.
+ * Buffers are kept and only grow, so recomputing for frames of the same size
+ * does not allocate</p>
+ * <ul>
+ * <li>sum(Y, X): pixels with y &lt; Y and x &lt; X</li>
+ * <li>tilted(Y, X): pixels with y &lt; Y and |x - X + 1| &lt;= Y - y - 1</li>
+ * </ul>
+ *
+ * @author Raul Hernandez Lopez.
+ */
+public final class IntegralImage {
+    private int width;
+    private int height;
+    private int stride;
+    // (height + 1) * stride values each
+    private int[] sum = new int[0];
+    private long[] squaredSum = new long[0];
+    private int[] tilted = new int[0];
+    // Tilted computation, running sums along both diagonals
+    private int[] rowPrefix = new int[0];
+    private int[] antiDiagonalSums = new int[0];
+    private int[] diagonalSums = new int[0];
+
+    public void compute(GrayImage image, boolean withTilted) {
+        width = image.getWidth();
+        height = image.getHeight();
+        stride = width + 1;
+        int size = (height + 1) * stride;
+        if (sum.length < size) {
+            sum = new int[size];
+            squaredSum = new long[size];
+        }
+        byte[] pixels = image.getPixels();
+        int imageStride = image.getStride();
+        for (int x = 0; x < stride; x++) {
+            sum[x] = 0;
+            squaredSum[x] = 0;
+        }
+        for (int y = 0; y < height; y++) {
+            int source = image.getOffset() + y * imageStride;
+            int row = (y + 1) * stride;
+            int rowSum = 0;
+            long rowSquaredSum = 0;
+            sum[row] = 0;
+            squaredSum[row] = 0;
+            for (int x = 0; x < width; x++) {
+                int value = pixels[source + x] & 0xff;
+                rowSum += value;
+                rowSquaredSum += value * value;
+                sum[row + x + 1] = sum[row - stride + x + 1] + rowSum;
+                squaredSum[row + x + 1] = squaredSum[row - stride + x + 1] + rowSquaredSum;
+            }
+        }
+        if (withTilted) {
+            computeTilted(image);
+        }
+    }
+
+    /**
+     * <p>tilted(Y, X) is the sum over rows y &lt; Y of the row prefixes
+     * P(y, X + Y - 1 - y) - P(y, X - Y + y), clamped to the row. The first terms share
+     * X + Y along an anti-diagonal and the second ones X - Y along a diagonal, so both
+     * are accumulated row by row per diagonal</p>
+     */
+    private void computeTilted(GrayImage image) {
+        int size = (height + 1) * stride;
+        if (tilted.length < size) {
+            tilted = new int[size];
+        }
+        int diagonals = width + height;
+        if (antiDiagonalSums.length < diagonals) {
+            antiDiagonalSums = new int[diagonals];
+            diagonalSums = new int[diagonals];
+        }
+        if (rowPrefix.length < stride) {
+            rowPrefix = new int[stride];
+        }
+        for (int i = 0; i < diagonals; i++) {
+            antiDiagonalSums[i] = 0;
+            diagonalSums[i] = 0;
+        }
+        for (int x = 0; x < stride; x++) {
+            tilted[x] = 0;
+        }
+        byte[] pixels = image.getPixels();
+        for (int y = 0; y < height; y++) {
+            int source = image.getOffset() + y * image.getStride();
+            rowPrefix[0] = 0;
+            for (int x = 0; x < width; x++) {
+                rowPrefix[x + 1] = rowPrefix[x] + (pixels[source + x] & 0xff);
+            }
+            // anti-diagonal s = X + Y - 1 adds P(y, s - y)
+            for (int s = 0; s < diagonals; s++) {
+                antiDiagonalSums[s] += rowPrefix[clamp(s - y)];
+            }
+            // diagonal d = X - Y, stored at d + height, adds P(y, d + y)
+            for (int d = -height; d < width; d++) {
+                diagonalSums[d + height] += rowPrefix[clamp(d + y)];
+            }
+            int row = (y + 1) * stride;
+            for (int x = 0; x <= width; x++) {
+                tilted[row + x] = antiDiagonalSums[x + y] - diagonalSums[x - y - 1 + height];
+            }
+        }
+    }
+
+    private int clamp(int x) {
+        return x < 0 ? 0 : (x > width ? width : x);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return distance between rows of the integral images
+     */
+    public int getStride() {
+        return stride;
+    }
+
+    int[] sum() {
+        return sum;
+    }
+
+    long[] squaredSum() {
+        return squaredSum;
+    }
+
+    int[] tilted() {
+        return tilted;
+    }
+
+    public int sum(int x, int y, int rectWidth, int rectHeight) {
+        int top = y * stride + x;
+        int bottom = (y + rectHeight) * stride + x;
+        return sum[top] - sum[top + rectWidth] - sum[bottom] + sum[bottom + rectWidth];
+    }
+
+    /**
+     * Sum of a rect rotated 45 degrees clockwise around its top corner (x, y)
+     */
+    public int tiltedSum(int x, int y, int rectWidth, int rectHeight) {
+        return tilted[y * stride + x]
+                - tilted[(y + rectHeight) * stride + x - rectHeight]
+                - tilted[(y + rectWidth) * stride + x + rectWidth]
+                + tilted[(y + rectWidth + rectHeight) * stride + x + rectWidth - rectHeight];
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2017 Raul Hernandez Lopez @raulh82vlc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.raulh82vlc.face_detection_sample.cascade;
+
+import com.raulh82vlc.face_detection_sample.model.FaceRects;
+
+/**
+ * <p>Merges the raw hits of a cascade the way OpenCV {@code groupRectangles} does:
+ * similar rects are clustered, clusters with up to {@code minNeighbors} hits are dropped,
+ * the rest are averaged and small clusters inside stronger bigger ones are removed.
+ * Buffers are kept between calls, it is not thread safe</p>
+ *
+ * @author Raul Hernandez Lopez.
+ */
+final class RectGrouping {
+    private static final float EPS = 0.2f;
+
+    private int[] parents = new int[0];
+    private int[] classes = new int[0];
+    // Per class: sum of x, y, width and height, then the number of hits
+    private int[] classRects = new int[0];
+    private int[] classHits = new int[0];
+
+    void group(FaceRects candidates, int minNeighbors, FaceRects objects) {
+        objects.clear();
+        int count = candidates.size();
+        if (minNeighbors <= 0) {
+            objects.copyFrom(candidates);
+            return;
+        }
+        ensureCapacity(count);
+        int classCount = partition(candidates, count);
+        for (int i = 0; i < classCount * 4; i++) {
+            classRects[i] = 0;
+        }
+        for (int i = 0; i < classCount; i++) {
+            classHits[i] = 0;
+        }
+        for (int i = 0; i < count; i++) {
+            int offset = classes[i] * 4;
+            classRects[offset] += candidates.getX(i);
+            classRects[offset + 1] += candidates.getY(i);
+            classRects[offset + 2] += candidates.getWidth(i);
+            classRects[offset + 3] += candidates.getHeight(i);
+            classHits[classes[i]]++;
+        }
+        for (int i = 0; i < classCount; i++) {
+            float scale = 1f / classHits[i];
+            for (int j = i * 4; j < i * 4 + 4; j++) {
+                classRects[j] = Math.round(classRects[j] * scale);
+            }
+        }
+        for (int i = 0; i < classCount; i++) {
+            int hits = classHits[i];
+            if (hits > minNeighbors && !isInsideStrongerRect(i, classCount, minNeighbors)) {
+                int offset = i * 4;
+                objects.add(classRects[offset], classRects[offset + 1],
+                        classRects[offset + 2], classRects[offset + 3]);
+            }
+        }
+    }
+
+    /**
+     * Clusters similar rects with union find, fills the class of every rect
+     *
+     * @return number of classes
+     */
+    private int partition(FaceRects candidates, int count) {
+        for (int i = 0; i < count; i++) {
+            parents[i] = i;
+        }
+        for (int i = 0; i < count; i++) {
+            for (int j = i + 1; j < count; j++) {
+                if (isSimilar(candidates, i, j)) {
+                    int rootI = find(i);
+                    int rootJ = find(j);
+                    if (rootI != rootJ) {
+                        parents[rootJ] = rootI;
+                    }
+                }
+            }
+        }
+        int classCount = 0;
+        // roots get their class first, so classes follow the order of the candidates
+        for (int i = 0; i < count; i++) {
+            classes[i] = -1;
+        }
+        for (int i = 0; i < count; i++) {
+            int root = find(i);
+            if (classes[root] < 0) {
+                classes[root] = classCount++;
+            }
+            classes[i] = classes[root];
+        }
+        return classCount;
+    }
+
+    private int find(int i) {
+        while (parents[i] != i) {
+            parents[i] = parents[parents[i]];
+            i = parents[i];
+        }
+        return i;
+    }
+
+    private static boolean isSimilar(FaceRects rects, int i, int j) {
+        float delta = EPS * (Math.min(rects.getWidth(i), rects.getWidth(j))
+                + Math.min(rects.getHeight(i), rects.getHeight(j))) * 0.5f;
+        return Math.abs(rects.getX(i) - rects.getX(j)) <= delta
+                && Math.abs(rects.getY(i) - rects.getY(j)) <= delta
+                && Math.abs(rects.getX(i) + rects.getWidth(i)
+                - rects.getX(j) - rects.getWidth(j)) <= delta
+                && Math.abs(rects.getY(i) + rects.getHeight(i)
+                - rects.getY(j) - rects.getHeight(j)) <= delta;
+    }
+
+    private boolean isInsideStrongerRect(int i, int classCount, int minNeighbors) {
+        int hits = classHits[i];
+        int offset = i * 4;
+        for (int j = 0; j < classCount; j++) {
+            int otherHits = classHits[j];
+            if (j == i || otherHits <= minNeighbors) {
+                continue;
+            }
+            int other = j * 4;
+            int dx = Math.round(classRects[other + 2] * EPS);
+            int dy = Math.round(classRects[other + 3] * EPS);
+            if (classRects[offset] >= classRects[other] - dx
+                    && classRects[offset + 1] >= classRects[other + 1] - dy
+                    && classRects[offset] + classRects[offset + 2]
+                    <= classRects[other] + classRects[other + 2] + dx
+                    && classRects[offset + 1] + classRects[offset + 3]
+                    <= classRects[other + 1] + classRects[other + 3] + dy
+                    && (otherHits > Math.max(3, hits) || hits < 3)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void ensureCapacity(int count) {
+        if (parents.length < count) {
+            parents = new int[count];
+            classes = new int[count];
+            classRects = new int[count * 4];
+            classHits = new int[count];
+        }
+    }
+}
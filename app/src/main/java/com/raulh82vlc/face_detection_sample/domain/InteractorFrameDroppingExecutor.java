@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2017 Raul Hernandez Lopez @raulh82vlc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.raulh82vlc.face_detection_sample.domain;
+
+import com.raulh82vlc.face_detection_sample.opencv.domain.Interactor;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Implementation of the {@link InteractorExecutor} contract
+ * to execute a single thread on the background, keeping at most one pending run per
+ * {@link Interactor}. Interactors keep their latest input as state, so when a run is
+ * already queued a new submission is dropped and the queued run picks up the latest frame.
+ * @author Raul Hernandez Lopez.
+ */
+public class InteractorFrameDroppingExecutor implements InteractorExecutor {
+
+    private final Executor threadExecutor;
+    private final ConcurrentMap<Interactor, PendingRun> pendingRuns = new ConcurrentHashMap<>();
+    // Counters
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+
+    public InteractorFrameDroppingExecutor() {
+        threadExecutor = Executors.newSingleThreadExecutor();
+    }
+
+    @Override
+    public void execute(final Interactor interactor) {
+        if (interactor == null) {
+            throw new IllegalArgumentException("Interactor must be instantiated");
+        }
+        submitted.incrementAndGet();
+        PendingRun pendingRun = pendingRuns.get(interactor);
+        if (pendingRun == null) {
+            PendingRun newRun = new PendingRun(interactor);
+            pendingRun = pendingRuns.putIfAbsent(interactor, newRun);
+            if (pendingRun == null) {
+                pendingRun = newRun;
+            }
+        }
+        if (pendingRun.isQueued.compareAndSet(false, true)) {
+            threadExecutor.execute(pendingRun);
+        } else {
+            dropped.incrementAndGet();
+        }
+    }
+
+    public long getSubmittedCount() {
+        return submitted.get();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public long getCompletedCount() {
+        return completed.get();
+    }
+
+    /**
+     * Single reusable run per interactor, flagged while waiting on the queue
+     */
+    private final class PendingRun implements Runnable {
+        private final Interactor interactor;
+        private final AtomicBoolean isQueued = new AtomicBoolean(false);
+
+        private PendingRun(Interactor interactor) {
+            this.interactor = interactor;
+        }
+
+        @Override
+        public void run() {
+            // cleared before running so a frame arriving meanwhile is queued once more
+            isQueued.set(false);
+            try {
+                interactor.run();
+            } finally {
+                completed.incrementAndGet();
+            }
+        }
+    }
+}
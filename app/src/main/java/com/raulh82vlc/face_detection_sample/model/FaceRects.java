@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2017 Raul Hernandez Lopez @raulh82vlc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.raulh82vlc.face_detection_sample.model;
+
+/**
+ * <p>Reusable buffer of face rectangles stored as x, y, width and height primitives,
+ * it only grows when a frame has more faces than ever seen before</p>
+ * @author Raul Hernandez Lopez.
+ */
+
+public class FaceRects {
+    private static final int FIELDS = 4;
+    private static final int DEFAULT_CAPACITY = 8;
+
+    private int[] rects;
+    private int size = 0;
+
+    public FaceRects() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public FaceRects(int capacity) {
+        rects = new int[Math.max(1, capacity) * FIELDS];
+    }
+
+    /**
+     * Sets the number of faces and returns the backing array to be filled in bulk,
+     * its length is a multiple of 4 and may be bigger than needed
+     */
+    public int[] reserve(int count) {
+        ensureCapacity(count);
+        size = count;
+        return rects;
+    }
+
+    public void add(int x, int y, int width, int height) {
+        ensureCapacity(size + 1);
+        set(size++, x, y, width, height);
+    }
+
+    public void set(int index, int x, int y, int width, int height) {
+        int offset = index * FIELDS;
+        rects[offset] = x;
+        rects[offset + 1] = y;
+        rects[offset + 2] = width;
+        rects[offset + 3] = height;
+    }
+
+    public void copyFrom(FaceRects other) {
+        int[] target = reserve(other.size);
+        System.arraycopy(other.rects, 0, target, 0, other.size * FIELDS);
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getX(int index) {
+        return rects[index * FIELDS];
+    }
+
+    public int getY(int index) {
+        return rects[index * FIELDS + 1];
+    }
+
+    public int getWidth(int index) {
+        return rects[index * FIELDS + 2];
+    }
+
+    public int getHeight(int index) {
+        return rects[index * FIELDS + 3];
+    }
+
+    private void ensureCapacity(int count) {
+        if (count * FIELDS > rects.length) {
+            int[] grown = new int[Math.max(count, size * 2) * FIELDS];
+            System.arraycopy(rects, 0, grown, 0, size * FIELDS);
+            rects = grown;
+        }
+    }
+}
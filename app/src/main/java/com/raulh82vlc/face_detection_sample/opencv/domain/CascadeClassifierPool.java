@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2017 Raul Hernandez Lopez @raulh82vlc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.raulh82vlc.face_detection_sample.opencv.domain;
+
+import org.opencv.objdetect.CascadeClassifier;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * <p>A {@link CascadeClassifier} must not run detections from several threads at once,
+ * so concurrent detections borrow their own instance from this pool. Instances are loaded
+ * from the cascade file on demand, up to the pool size</p>
+ *
+ * @author Raul Hernandez Lopez.
+ */
+public class CascadeClassifierPool {
+    private final String cascadePath;
+    private final int maxSize;
+    private final BlockingQueue<CascadeClassifier> idleClassifiers = new LinkedBlockingQueue<>();
+    private int loadedClassifiers;
+
+    /**
+     * @param loadedClassifier classifier already loaded from {@code cascadePath}
+     */
+    public CascadeClassifierPool(CascadeClassifier loadedClassifier, String cascadePath,
+                                 int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Pool size must be positive");
+        }
+        this.cascadePath = cascadePath;
+        this.maxSize = maxSize;
+        idleClassifiers.offer(loadedClassifier);
+        loadedClassifiers = 1;
+    }
+
+    /**
+     * Borrows a classifier, waiting for one to be given back when all of them are in use
+     */
+    public CascadeClassifier acquire() {
+        CascadeClassifier classifier = idleClassifiers.poll();
+        if (classifier == null) {
+            classifier = loadIfBelowSize();
+        }
+        if (classifier == null) {
+            try {
+                classifier = idleClassifiers.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted waiting for a classifier", e);
+            }
+        }
+        return classifier;
+    }
+
+    /**
+     * Loads every classifier up to the pool size now, slow, so the cascade file is no longer
+     * needed afterwards
+     */
+    public void loadAll() {
+        CascadeClassifier classifier;
+        while ((classifier = loadIfBelowSize()) != null) {
+            idleClassifiers.offer(classifier);
+        }
+    }
+
+    public void release(CascadeClassifier classifier) {
+        idleClassifiers.offer(classifier);
+    }
+
+    private CascadeClassifier loadIfBelowSize() {
+        synchronized (this) {
+            if (loadedClassifiers >= maxSize) {
+                return null;
+            }
+            loadedClassifiers++;
+        }
+        CascadeClassifier classifier = null;
+        boolean isLoaded = false;
+        try {
+            classifier = newClassifier(cascadePath);
+            if (classifier.empty()) {
+                throw new IllegalStateException("Failed to load cascade classifier from "
+                        + cascadePath);
+            }
+            isLoaded = true;
+            return classifier;
+        } finally {
+            if (!isLoaded) {
+                // the slot is given back, so a later acquire loads it instead of waiting for
+                // a classifier that will never exist
+                synchronized (this) {
+                    loadedClassifiers--;
+                }
+            }
+        }
+    }
+
+    /**
+     * Loads a new classifier, its native object is freed when it is finalized as the
+     * classifier has no release
+     */
+    protected CascadeClassifier newClassifier(String cascadePath) {
+        return new CascadeClassifier(cascadePath);
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2017 Raul Hernandez Lopez @raulh82vlc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.raulh82vlc.face_detection_sample.opencv.domain;
+
+import com.raulh82vlc.face_detection_sample.opencv.domain.detector.FaceDetector;
+
+/**
+ * Detectors warm up interactor contract, loads the detectors before the camera starts
+ * @author Raul Hernandez Lopez.
+ */
+public interface DetectorsWarmUpInteractor {
+    void execute(WarmUpCallback callback);
+
+    /**
+     * Warm Up Callback used on the main thread once both detectors are loaded and
+     * have run a first detection, or as soon as one of them fails
+     * @author Raul Hernandez Lopez.
+     */
+    interface WarmUpCallback {
+        /**
+         * @param detectorsEye eye classifiers, all of them already loaded
+         */
+        void onDetectorsReady(FaceDetector detectorFace, CascadeClassifierPool detectorsEye);
+
+        void onDetectorsFailed(Exception exception);
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2017 Raul Hernandez Lopez @raulh82vlc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.raulh82vlc.face_detection_sample.opencv.domain;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.raulh82vlc.face_detection_sample.domain.InteractorExecutor;
+import com.raulh82vlc.face_detection_sample.domain.MainThread;
+import com.raulh82vlc.face_detection_sample.model.FaceRects;
+import com.raulh82vlc.face_detection_sample.opencv.domain.detector.FaceDetector;
+import com.raulh82vlc.face_detection_sample.opencv.domain.detector.FaceDetectorBackend;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfRect;
+import org.opencv.core.Size;
+import org.opencv.objdetect.CascadeClassifier;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * <p>Detectors Warm Up implementation of the {@link DetectorsWarmUpInteractor} contract.
+ * The face detector is loaded on the interactor thread while the eye classifiers, one per
+ * pool thread, are loaded on the pool at the same time, then each detector runs a detection
+ * over a synthetic frame, so neither loading nor the one time native initialisation is paid
+ * by the first camera frames</p>
+ *
+ * @author Raul Hernandez Lopez.
+ */
+public class DetectorsWarmUpInteractorImpl implements Interactor, DetectorsWarmUpInteractor {
+
+    private static final String TAG = DetectorsWarmUpInteractor.class.getSimpleName();
+    // Synthetic frames, half the camera frame for faces and an eye area for eyes
+    private static final int WARM_UP_FRAME_WIDTH = 320;
+    private static final int WARM_UP_FRAME_HEIGHT = 240;
+    private static final int WARM_UP_EYE_AREA_SIZE = 64;
+
+    private final Context context;
+    private final FaceDetectorBackend faceBackend;
+    private final int eyeCascadeRes;
+    // Interactor mechanism
+    private final ForkJoinPool pool;
+    private final InteractorExecutor executor;
+    private final MainThread mainThread;
+    private WarmUpCallback warmUpCallback;
+
+    public DetectorsWarmUpInteractorImpl(Context context, FaceDetectorBackend faceBackend,
+                                         int eyeCascadeRes, ForkJoinPool pool,
+                                         MainThread mainThread, InteractorExecutor executor) {
+        this.context = context;
+        this.faceBackend = faceBackend;
+        this.eyeCascadeRes = eyeCascadeRes;
+        this.pool = pool;
+        this.mainThread = mainThread;
+        this.executor = executor;
+    }
+
+    @Override
+    public void execute(WarmUpCallback callback) {
+        this.warmUpCallback = callback;
+        executor.execute(this);
+    }
+
+    @Override
+    public void run() {
+        long start = System.nanoTime();
+        Future<CascadeClassifierPool> eyeLoading = pool.submit(
+                new Callable<CascadeClassifierPool>() {
+                    @Override
+                    public CascadeClassifierPool call() throws IOException {
+                        return loadEyeClassifiers();
+                    }
+                });
+        FaceDetector detectorFace = null;
+        try {
+            detectorFace = faceBackend.create(context, pool);
+            Log.i(TAG, "Loaded face detector " + detectorFace.getName());
+            warmUpFaces(detectorFace);
+            CascadeClassifierPool detectorsEye = eyeLoading.get();
+            Log.i(TAG, "Detectors ready in " + (System.nanoTime() - start) / 1000000 + " ms");
+            notifyDetectorsReady(detectorFace, detectorsEye);
+        } catch (IOException | RuntimeException e) {
+            discardWarmUp(detectorFace, eyeLoading);
+            notifyDetectorsFailed(e);
+        } catch (ExecutionException e) {
+            discardWarmUp(detectorFace, eyeLoading);
+            notifyDetectorsFailed(e.getCause() instanceof Exception
+                    ? (Exception) e.getCause() : e);
+        } catch (InterruptedException e) {
+            discardWarmUp(detectorFace, eyeLoading);
+            Thread.currentThread().interrupt();
+            notifyDetectorsFailed(e);
+        }
+    }
+
+    /**
+     * Frees what was loaded before a failure. The eye classifiers have no native release,
+     * dropping them lets them be finalized
+     */
+    private static void discardWarmUp(FaceDetector detectorFace,
+                                      Future<CascadeClassifierPool> eyeLoading) {
+        if (detectorFace != null) {
+            detectorFace.release();
+        }
+        eyeLoading.cancel(false);
+    }
+
+    /**
+     * Loads an eye classifier per pool thread, so concurrent eye tasks never load one
+     */
+    private CascadeClassifierPool loadEyeClassifiers() throws IOException {
+        File cascadeFileEye = FileHelper.readCascadeFile(context, eyeCascadeRes,
+                "cascadeER", "haarcascade_eye.xml");
+        try {
+            CascadeClassifier detectorEye = loadClassifier(cascadeFileEye);
+            warmUpEyes(detectorEye);
+            CascadeClassifierPool detectorsEye = new CascadeClassifierPool(detectorEye,
+                    cascadeFileEye.getAbsolutePath(), pool.getParallelism());
+            detectorsEye.loadAll();
+            return detectorsEye;
+        } catch (IllegalStateException e) {
+            cascadeFileEye.delete();
+            throw new IOException(e.getMessage(), e);
+        } catch (IOException e) {
+            // copied again on the next launch
+            cascadeFileEye.delete();
+            throw e;
+        }
+    }
+
+    private static CascadeClassifier loadClassifier(File cascadeFile) throws IOException {
+        CascadeClassifier detector = new CascadeClassifier(cascadeFile.getAbsolutePath());
+        if (detector.empty()) {
+            throw new IOException("Failed to load cascade classifier from "
+                    + cascadeFile.getAbsolutePath());
+        }
+        Log.i(TAG, "Loaded cascade classifier from " + cascadeFile.getAbsolutePath());
+        return detector;
+    }
+
+    private static void warmUpFaces(FaceDetector detectorFace) {
+        Mat frame = syntheticFrame(WARM_UP_FRAME_WIDTH, WARM_UP_FRAME_HEIGHT);
+        int faceSize = Math.round(WARM_UP_FRAME_HEIGHT * 0.2f);
+        detectorFace.detect(frame, new Size(faceSize, faceSize), new Size(), new FaceRects());
+        frame.release();
+        Log.i(TAG, "First face detection took "
+                + detectorFace.getLastDetectionNanos() / 1000000 + " ms");
+    }
+
+    private static void warmUpEyes(CascadeClassifier detectorEye) {
+        Mat eyeArea = syntheticFrame(WARM_UP_EYE_AREA_SIZE, WARM_UP_EYE_AREA_SIZE);
+        MatOfRect eyes = new MatOfRect();
+        detectorEye.detectMultiScale(eyeArea, eyes, 1.15, 2, 2, new Size(30, 30), new Size());
+        eyes.release();
+        eyeArea.release();
+    }
+
+    /**
+     * Noise frame, so the cascades evaluate several stages instead of skipping flat windows
+     */
+    private static Mat syntheticFrame(int width, int height) {
+        Mat frame = new Mat(height, width, CvType.CV_8UC1);
+        Core.randu(frame, 0, 256);
+        return frame;
+    }
+
+    private void notifyDetectorsReady(final FaceDetector detectorFace,
+                                      final CascadeClassifierPool detectorsEye) {
+        mainThread.post(new Runnable() {
+            @Override
+            public void run() {
+                warmUpCallback.onDetectorsReady(detectorFace, detectorsEye);
+            }
+        });
+    }
+
+    private void notifyDetectorsFailed(final Exception exception) {
+        mainThread.post(new Runnable() {
+            @Override
+            public void run() {
+                warmUpCallback.onDetectorsFailed(exception);
+            }
+        });
+    }
+}
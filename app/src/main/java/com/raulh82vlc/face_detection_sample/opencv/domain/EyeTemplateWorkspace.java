@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2017 Raul Hernandez Lopez @raulh82vlc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.raulh82vlc.face_detection_sample.opencv.domain;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfRect;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+
+/**
+ * <p>Buffers of a single eye kept across frames: the learnt template, the template matching
+ * results and the detected eyes. Native buffers are only allocated again when the template
+ * size changes, each eye task owns its workspace so it is never shared between threads.
+ * It also remembers where the template was last found, so the next frame can search a small
+ * window around it before the whole eye area</p>
+ *
+ * @author Raul Hernandez Lopez.
+ */
+class EyeTemplateWorkspace {
+    // Template learnt from the detected iris
+    private final Mat template = new Mat();
+    private boolean hasTemplate = false;
+    // Matching buffers, of the whole eye area and of the window around the last match
+    private final Mat matchResult = new Mat();
+    private final Mat windowMatchResult = new Mat();
+    // Top left corner of the template where it was last found, in face crop coordinates
+    private final Point matchLocation = new Point();
+    private boolean hasMatchLocation = false;
+    private final Rect searchWindow = new Rect();
+    // Consecutive matches scoring below the threshold, the template may be stale
+    private int poorMatches = 0;
+    // Eyes found by the cascade classifier
+    private final MatOfRect eyes = new MatOfRect();
+    // Corners of the matched eye, iris and template area of the learnt eye, frame coordinates
+    private final Point matchTopLeft = new Point();
+    private final Point matchBottomRight = new Point();
+    private final Point iris = new Point();
+    private final Rect templateArea = new Rect();
+
+    boolean hasTemplate() {
+        return hasTemplate;
+    }
+
+    Mat getTemplate() {
+        return template;
+    }
+
+    /**
+     * Copies the new template into the workspace buffer, reusing it when the size is the same
+     */
+    void setTemplate(Mat source) {
+        source.copyTo(template);
+        hasTemplate = true;
+        poorMatches = 0;
+    }
+
+    void clearTemplate() {
+        hasTemplate = false;
+        hasMatchLocation = false;
+    }
+
+    /**
+     * @param x left of the template where it was found, in face crop coordinates
+     * @param y top of the template where it was found, in face crop coordinates
+     */
+    void setMatchLocation(double x, double y) {
+        matchLocation.x = x;
+        matchLocation.y = y;
+        hasMatchLocation = true;
+    }
+
+    /**
+     * @param area   eye area the window is kept inside of
+     * @param margin pixels searched around the template on every side
+     * @return window around the last match location, null when the template was never found
+     */
+    Rect getSearchWindow(Rect area, int margin) {
+        if (!hasMatchLocation) {
+            return null;
+        }
+        int left = Math.max(area.x, (int) matchLocation.x - margin);
+        int top = Math.max(area.y, (int) matchLocation.y - margin);
+        int right = Math.min(area.x + area.width,
+                (int) matchLocation.x + template.cols() + margin);
+        int bottom = Math.min(area.y + area.height,
+                (int) matchLocation.y + template.rows() + margin);
+        if (right - left < template.cols() || bottom - top < template.rows()) {
+            return null;
+        }
+        searchWindow.x = left;
+        searchWindow.y = top;
+        searchWindow.width = right - left;
+        searchWindow.height = bottom - top;
+        return searchWindow;
+    }
+
+    /**
+     * @return result buffer of {@code TM_SQDIFF_NORMED} for a search area of the given size
+     */
+    Mat getMatchResult(int searchWidth, int searchHeight) {
+        matchResult.create(searchHeight - template.rows() + 1,
+                searchWidth - template.cols() + 1, CvType.CV_32FC1);
+        return matchResult;
+    }
+
+    /**
+     * @return result buffer of {@code TM_SQDIFF_NORMED} for a search window of the given size
+     */
+    Mat getWindowMatchResult(int windowWidth, int windowHeight) {
+        windowMatchResult.create(windowHeight - template.rows() + 1,
+                windowWidth - template.cols() + 1, CvType.CV_32FC1);
+        return windowMatchResult;
+    }
+
+    void countMatch(boolean isGoodMatch) {
+        poorMatches = isGoodMatch ? 0 : poorMatches + 1;
+    }
+
+    int getPoorMatches() {
+        return poorMatches;
+    }
+
+    MatOfRect getEyes() {
+        return eyes;
+    }
+
+    Point getMatchTopLeft() {
+        return matchTopLeft;
+    }
+
+    Point getMatchBottomRight() {
+        return matchBottomRight;
+    }
+
+    Point getIris() {
+        return iris;
+    }
+
+    Rect getTemplateArea() {
+        return templateArea;
+    }
+
+    void release() {
+        hasTemplate = false;
+        hasMatchLocation = false;
+        poorMatches = 0;
+        template.release();
+        matchResult.release();
+        windowMatchResult.release();
+        eyes.release();
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2017 Raul Hernandez Lopez @raulh82vlc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.raulh82vlc.face_detection_sample.opencv.domain;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * <p>Eyes state of one face track kept across frames: the template workspace of each eye
+ * and the last face region.
+ * The eyes are searched on a crop of the face normalized to {@link #FACE_CROP_SIZE}, so
+ * their cost does not depend on how close the face is, and results are mapped back to
+ * frame coordinates through the last face region</p>
+ *
+ * @author Raul Hernandez Lopez.
+ */
+class EyeTrackState {
+    // side of the normalized face crop
+    static final int FACE_CROP_SIZE = 128;
+    private static final Size CROP_SIZE = new Size(FACE_CROP_SIZE, FACE_CROP_SIZE);
+
+    private final EyeTemplateWorkspace rightEye = new EyeTemplateWorkspace();
+    private final EyeTemplateWorkspace leftEye = new EyeTemplateWorkspace();
+    private final Rect lastFace = new Rect();
+    // Gray face of the last frame resized to the crop size, reused across frames
+    private final Mat faceCrop = new Mat(FACE_CROP_SIZE, FACE_CROP_SIZE, CvType.CV_8UC1);
+
+    EyeTemplateWorkspace getRightEye() {
+        return rightEye;
+    }
+
+    EyeTemplateWorkspace getLeftEye() {
+        return leftEye;
+    }
+
+    /**
+     * Keeps the face region, clipped to the frame, and resizes it into the face crop
+     *
+     * @return false when the face is outside the frame, then there is no crop
+     */
+    boolean cropFace(Mat gray, int x, int y, int width, int height) {
+        lastFace.x = Math.max(x, 0);
+        lastFace.y = Math.max(y, 0);
+        lastFace.width = Math.min(x + width, gray.cols()) - lastFace.x;
+        lastFace.height = Math.min(y + height, gray.rows()) - lastFace.y;
+        if (lastFace.width <= 0 || lastFace.height <= 0) {
+            return false;
+        }
+        Mat face = gray.submat(lastFace);
+        try {
+            Imgproc.resize(face, faceCrop, CROP_SIZE, 0, 0, Imgproc.INTER_AREA);
+        } finally {
+            face.release();
+        }
+        return true;
+    }
+
+    Mat getFaceCrop() {
+        return faceCrop;
+    }
+
+    /**
+     * @param cropPoint point in face crop coordinates
+     * @param framePoint where the point in frame coordinates is written
+     */
+    void toFrame(Point cropPoint, Point framePoint) {
+        framePoint.x = lastFace.x + cropPoint.x * lastFace.width / FACE_CROP_SIZE;
+        framePoint.y = lastFace.y + cropPoint.y * lastFace.height / FACE_CROP_SIZE;
+    }
+
+    /**
+     * @param cropRect region in face crop coordinates
+     * @param frameRect where the region in frame coordinates is written
+     */
+    void toFrame(Rect cropRect, Rect frameRect) {
+        frameRect.x = lastFace.x + cropRect.x * lastFace.width / FACE_CROP_SIZE;
+        frameRect.y = lastFace.y + cropRect.y * lastFace.height / FACE_CROP_SIZE;
+        frameRect.width = cropRect.width * lastFace.width / FACE_CROP_SIZE;
+        frameRect.height = cropRect.height * lastFace.height / FACE_CROP_SIZE;
+    }
+
+    /**
+     * Forgets the templates, keeping the buffers for another track
+     */
+    void clear() {
+        rightEye.clearTemplate();
+        leftEye.clearTemplate();
+    }
+
+    void release() {
+        clear();
+        rightEye.release();
+        leftEye.release();
+        faceCrop.release();
+    }
+}
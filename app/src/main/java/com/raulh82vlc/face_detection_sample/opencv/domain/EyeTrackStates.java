@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2017 Raul Hernandez Lopez @raulh82vlc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.raulh82vlc.face_detection_sample.opencv.domain;
+
+/**
+ * <p>Bounded map of {@link EyeTrackState} by track id. Once full, the state of the least
+ * recently used track is evicted and its buffers are reused by the new track, so there are
+ * never more native buffers than {@code capacity} tracks.
+ * Not thread safe, it is used by one eyes detection thread</p>
+ *
+ * @author Raul Hernandez Lopez.
+ */
+class EyeTrackStates {
+    private final int[] trackIds;
+    private final long[] lastUses;
+    private final EyeTrackState[] states;
+    private int size = 0;
+    private long uses = 0;
+
+    EyeTrackStates(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        trackIds = new int[capacity];
+        lastUses = new long[capacity];
+        states = new EyeTrackState[capacity];
+    }
+
+    /**
+     * @return state of the track, a cleared one when the track is new
+     */
+    EyeTrackState get(int trackId) {
+        int slot = -1;
+        for (int i = 0; i < size; i++) {
+            if (trackIds[i] == trackId) {
+                slot = i;
+                break;
+            }
+        }
+        if (slot < 0) {
+            if (size < states.length) {
+                slot = size++;
+                states[slot] = new EyeTrackState();
+            } else {
+                slot = leastRecentlyUsed();
+                states[slot].clear();
+            }
+            trackIds[slot] = trackId;
+        }
+        lastUses[slot] = ++uses;
+        return states[slot];
+    }
+
+    void release() {
+        for (int i = 0; i < size; i++) {
+            states[i].release();
+            states[i] = null;
+        }
+        size = 0;
+    }
+
+    private int leastRecentlyUsed() {
+        int slot = 0;
+        for (int i = 1; i < size; i++) {
+            if (lastUses[i] < lastUses[slot]) {
+                slot = i;
+            }
+        }
+        return slot;
+    }
+}
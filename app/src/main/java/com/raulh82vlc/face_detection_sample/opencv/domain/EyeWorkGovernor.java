@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2017 Raul Hernandez Lopez @raulh82vlc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.raulh82vlc.face_detection_sample.opencv.domain;
+
+/**
+ * <p>Per frame time governor of the eyes work. Given the time left until the frame
+ * deadline, counted from its capture, it decides face by face, biggest first, whether the
+ * eyes are learnt, only matched against their templates or skipped, from the average cost
+ * of learning and matching an eye. Eye tasks run in parallel, so their cost is spread
+ * over the pool parallelism. Whatever is shed is counted.
+ * Not thread safe, it is used by one eyes detection thread</p>
+ *
+ * @author Raul Hernandez Lopez.
+ */
+public class EyeWorkGovernor {
+    // weight of the last eye task in the average costs
+    private static final float AVERAGE_WEIGHT = 0.2f;
+    private static final int EYES_PER_FACE = 2;
+
+    /**
+     * Eyes work of one face
+     */
+    public enum EyeWork {
+        LEARN, MATCH, NONE
+    }
+
+    private final long deadlineNanos;
+    private final int parallelism;
+    // Average cost of an eye task, 0 until measured
+    private float learnNanos = 0;
+    private float matchNanos = 0;
+    // Time since capture of the frame being planned, including the work planned so far
+    private long plannedNanos;
+    // Stats
+    private volatile long learntFaces = 0;
+    private volatile long matchedFaces = 0;
+    private volatile long deferredLearnings = 0;
+    private volatile long shedFaces = 0;
+
+    /**
+     * @param deadlineNanos time since capture by which the eyes of a frame are done
+     * @param parallelism   eye tasks running at the same time
+     */
+    public EyeWorkGovernor(long deadlineNanos, int parallelism) {
+        if (deadlineNanos <= 0 || parallelism <= 0) {
+            throw new IllegalArgumentException("Deadline and parallelism must be positive");
+        }
+        this.deadlineNanos = deadlineNanos;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Starts planning the eyes work of a frame
+     */
+    void startFrame(long captureNanos) {
+        plannedNanos = System.nanoTime() - captureNanos;
+    }
+
+    /**
+     * Decides the work of the next face, faces have to be given biggest first
+     *
+     * @param needsLearning an eye of the face has no template or a stale one
+     * @param hasTemplate   an eye of the face can be matched
+     */
+    EyeWork decide(boolean needsLearning, boolean hasTemplate) {
+        long learnCost = (long) (learnNanos * EYES_PER_FACE / parallelism);
+        long matchCost = (long) (matchNanos * EYES_PER_FACE / parallelism);
+        if (needsLearning && plannedNanos + learnCost <= deadlineNanos) {
+            plannedNanos += learnCost;
+            learntFaces++;
+            return EyeWork.LEARN;
+        }
+        if (hasTemplate && plannedNanos + matchCost <= deadlineNanos) {
+            plannedNanos += matchCost;
+            if (needsLearning) {
+                deferredLearnings++;
+            }
+            matchedFaces++;
+            return EyeWork.MATCH;
+        }
+        shedFaces++;
+        return EyeWork.NONE;
+    }
+
+    /**
+     * Measured cost of an eye task of the frame, once it is done
+     */
+    void onEyeDone(boolean isLearning, long durationNanos) {
+        if (isLearning) {
+            learnNanos = learnNanos == 0 ? durationNanos
+                    : learnNanos + (durationNanos - learnNanos) * AVERAGE_WEIGHT;
+        } else {
+            matchNanos = matchNanos == 0 ? durationNanos
+                    : matchNanos + (durationNanos - matchNanos) * AVERAGE_WEIGHT;
+        }
+    }
+
+    public long getLearntFaces() {
+        return learntFaces;
+    }
+
+    public long getMatchedFaces() {
+        return matchedFaces;
+    }
+
+    /**
+     * @return faces matched against a stale template, as there was no time to learn
+     */
+    public long getDeferredLearnings() {
+        return deferredLearnings;
+    }
+
+    public long getShedFaces() {
+        return shedFaces;
+    }
+
+    @Override
+    public String toString() {
+        return "learnt faces: " + learntFaces + ", matched: " + matchedFaces
+                + ", deferred learnings: " + deferredLearnings + ", shed: " + shedFaces
+                + ", eye learning: " + (long) learnNanos / 1000 + " us"
+                + ", matching: " + (long) matchNanos / 1000 + " us";
+    }
+}
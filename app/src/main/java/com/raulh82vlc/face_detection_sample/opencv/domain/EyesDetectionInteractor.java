@@ -17,9 +17,7 @@
 package com.raulh82vlc.face_detection_sample.opencv.domain;
 
 import com.raulh82vlc.face_detection_sample.model.Face;
-
-import org.opencv.core.Mat;
-import org.opencv.core.Rect;
+import com.raulh82vlc.face_detection_sample.opencv.domain.frame.FaceDetectionResult;
 
 /**
  * Eyes Detection interactor contract for eyes recognition use case
@@ -27,10 +25,20 @@ import org.opencv.core.Rect;
  */
 
 public interface EyesDetectionInteractor {
-    void execute(Mat matrixGray, Mat matrixRGBA, Rect face, EyesCallback callback);
+    /**
+     * Extracts the eyes of every face of the result as a single task, it takes over the caller
+     * reference of the result frame, which is released once eyes are extracted
+     */
+    void execute(FaceDetectionResult result, EyesCallback callback);
 
     void setRunningStatus(boolean isRunning);
 
+    /**
+     * Frees the eyes state of every face track on the detection thread, once no more
+     * results are executed
+     */
+    void release();
+
     /**
      * <p>Eyes Callback used when OpenCV returns a satisfactory eyes recognition
      * as a future improvement, could be passed the structure {@link Face} with the eyes inside
@@ -17,13 +17,16 @@
 package com.raulh82vlc.face_detection_sample.opencv.domain;
 
 import android.support.annotation.NonNull;
+import android.util.Log;
 
 import com.raulh82vlc.face_detection_sample.domain.InteractorExecutor;
 import com.raulh82vlc.face_detection_sample.domain.MainThread;
-import com.raulh82vlc.face_detection_sample.opencv.render.FaceDrawerOpenCV;
+import com.raulh82vlc.face_detection_sample.model.FaceRects;
+import com.raulh82vlc.face_detection_sample.opencv.domain.frame.FaceDetectionResult;
+import com.raulh82vlc.face_detection_sample.opencv.domain.frame.FrameLease;
+import com.raulh82vlc.face_detection_sample.opencv.render.EyesOverlay;
 
 import org.opencv.core.Core;
-import org.opencv.core.CvType;
 import org.opencv.core.Mat;
 import org.opencv.core.MatOfRect;
 import org.opencv.core.Point;
@@ -33,52 +36,189 @@ import org.opencv.imgproc.Imgproc;
 import org.opencv.objdetect.CascadeClassifier;
 import org.opencv.objdetect.Objdetect;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 /**
- * Eyes Detection Interactor implementation of the {@link EyesDetectionInteractor} contract
+ * Eyes Detection Interactor implementation of the {@link EyesDetectionInteractor} contract.
+ * <p>Every eye of every face is an independent task, they run on a work stealing pool
+ * and are all joined before notifying.
+ * Templates are learnt with the cascade classifier only when an eye has none yet or its
+ * {@code TM_SQDIFF_NORMED} match score stays below {@link #MIN_MATCH_SCORE}, otherwise
+ * the cheap template matching is used.
+ * Templates belong to the face track, so they follow each face across frames whatever
+ * the order the faces are detected in.
+ * Eyes are searched on the face resized to a fixed crop, so eye sizes are bounded,
+ * templates keep their scale when the face moves closer or further and every face costs
+ * the same whatever its size.
+ * Tasks only record what they found, it is published to the eyes overlay once they are
+ * all joined, so only the camera thread draws on the camera frames</p>
  * @author Raul Hernandez Lopez.
  */
 public class EyesDetectionInteractorImpl implements Interactor, EyesDetectionInteractor {
+    private static final String TAG = EyesDetectionInteractor.class.getSimpleName();
+    private static final String METHOD_LEARNING = "building Template with Detect multiscale";
+    private static final String METHOD_MATCHING = "match eye with Template";
     // Constants
-    private static final int LEARN_FRAMES_LIMIT = 50;
-    private static final int LEARN_FRAMES_MATCH_EYE = 25;
-    private static final int EYE_MIN_SIZE = 30;
-    private static final int IRIS_MIN_SIZE = 24;
-    // Frames
-    private int learnFrames = 0;
-    private int learnFramesCounter = 0;
-    // Cascade classifier
-    private final CascadeClassifier detectorEye;
-    // Templates
-    private Mat templateRight;
-    private Mat templateLeft;
-    // Previously detected face
-    private Rect face;
-    // Image Matrices
-    private Mat matrixGray, matrixRGBA;
+    // 1 - TM_SQDIFF_NORMED difference, a lower score means the template went stale
+    private static final double MIN_MATCH_SCORE = 0.85;
+    // consecutive poor matches before learning the template again, avoids relearning on blinks
+    private static final int POOR_MATCHES_TO_RELEARN = 3;
+    // Eye areas of the normalized face crop, a third of its height under the forehead
+    private static final int EYE_AREA_MARGIN = EyeTrackState.FACE_CROP_SIZE / 16;
+    private static final int EYE_AREA_TOP = (int) (EyeTrackState.FACE_CROP_SIZE / 4.5);
+    private static final int EYE_AREA_WIDTH = (EyeTrackState.FACE_CROP_SIZE
+            - 2 * EYE_AREA_MARGIN) / 2;
+    private static final int EYE_AREA_HEIGHT = (int) (EyeTrackState.FACE_CROP_SIZE / 3.0);
+    private static final Rect RIGHT_EYE_AREA = new Rect(EYE_AREA_MARGIN, EYE_AREA_TOP,
+            EYE_AREA_WIDTH, EYE_AREA_HEIGHT);
+    private static final Rect LEFT_EYE_AREA = new Rect(EYE_AREA_MARGIN + EYE_AREA_WIDTH,
+            EYE_AREA_TOP, EYE_AREA_WIDTH, EYE_AREA_HEIGHT);
+    // Eye sizes in the face crop, an eye is around a fifth of the face width
+    private static final Size EYE_MIN_SIZE = new Size(EyeTrackState.FACE_CROP_SIZE / 7,
+            EyeTrackState.FACE_CROP_SIZE / 7);
+    private static final Size EYE_MAX_SIZE = new Size(EYE_AREA_HEIGHT, EYE_AREA_HEIGHT);
+    private static final int IRIS_SIZE = EyeTrackState.FACE_CROP_SIZE / 10;
+    // pixels of the face crop searched around the last match before the whole eye area
+    private static final int SEARCH_WINDOW_MARGIN = 4;
+    // face tracks with eyes state, also the most faces whose eyes are searched per frame
+    private static final int MAX_EYE_TRACKS = 8;
+    // Frames, written by the background thread
+    private volatile long learnFrames = 0;
+    private volatile long matchFrames = 0;
+    // Cascade classifiers, one per concurrent eye task
+    private final CascadeClassifierPool detectorsEye;
+    // Eyes state per face track, the least recently seen tracks are evicted
+    private final EyeTrackStates trackStates = new EyeTrackStates(MAX_EYE_TRACKS);
+    // Latest frame result waiting for eyes extraction
+    private FaceDetectionResult pendingResult;
+    // Sheds eye work of late frames, null to always process every face
+    private volatile EyeWorkGovernor workGovernor;
+    // Eye shapes drawn by the camera thread, null to draw nothing
+    private volatile EyesOverlay eyesOverlay;
+    // Faces of the frame being processed biggest first, only used by the background thread
+    private int[] faceOrder = new int[MAX_EYE_TRACKS];
+    // Eye tasks of the frame being processed, taken from the reused ones, and the eye areas
+    // of a face in frame coordinates, only used by the background thread
+    private final List<EyeTask> eyeTasks = new ArrayList<>();
+    private final List<EyeTask> reusableTasks = new ArrayList<>();
+    private final Rect rightEyeFrameArea = new Rect();
+    private final Rect leftEyeFrameArea = new Rect();
+    private final RecursiveAction eyesAction = new RecursiveAction() {
+        @Override
+        protected void compute() {
+            invokeAll(eyeTasks);
+        }
+    };
+    // Method of the last frame, given to the main thread by a single reusable runnable
+    private volatile String methodForEyes;
+    private final AtomicBoolean isNotificationPosted = new AtomicBoolean(false);
+    private final Runnable notifyEyesFound = new Runnable() {
+        @Override
+        public void run() {
+            isNotificationPosted.set(false);
+            eyesCallback.onEyesDetected(methodForEyes);
+        }
+    };
     // Interactor mechanism
     private final InteractorExecutor executor;
+    private final ForkJoinPool eyesPool;
     private final MainThread mainThread;
     private EyesCallback eyesCallback;
     private boolean isRunning = false;
+    private volatile boolean isReleaseRequested = false;
 
-    public EyesDetectionInteractorImpl(CascadeClassifier detectorEye,
+    public EyesDetectionInteractorImpl(CascadeClassifierPool detectorsEye, ForkJoinPool eyesPool,
                                        MainThread mainThread, InteractorExecutor executor) {
-        this.detectorEye = detectorEye;
+        this.detectorsEye = detectorsEye;
+        this.eyesPool = eyesPool;
         this.executor =  executor;
         this.mainThread = mainThread;
     }
 
     @Override
     public void run() {
-        extractEyes();
+        FaceDetectionResult result;
+        synchronized (this) {
+            result = pendingResult;
+            pendingResult = null;
+        }
+        if (isReleaseRequested) {
+            if (result != null) {
+                result.getFrame().release();
+            }
+            // releases the templates of every eye workspace too
+            trackStates.release();
+            return;
+        }
+        if (result == null) {
+            return;
+        }
+        FrameLease frame = result.getFrame();
+        try {
+            FaceRects faces = result.getFaces();
+            EyeWorkGovernor governor = workGovernor;
+            if (governor != null) {
+                governor.startFrame(result.getTimestampNanos());
+            }
+            EyesOverlay overlay = eyesOverlay;
+            if (overlay != null) {
+                overlay.startFrame();
+            }
+            sortBySize(faces);
+            eyeTasks.clear();
+            for (int i = 0; i < faces.size() && i < MAX_EYE_TRACKS && isRunning; i++) {
+                addEyeTasks(faceOrder[i], result, frame.gray(), overlay, governor);
+            }
+            if (eyeTasks.isEmpty()) {
+                // the eyes of the last frame searched are still drawn
+                return;
+            }
+            eyesAction.reinitialize();
+            eyesPool.invoke(eyesAction);
+            if (overlay != null) {
+                for (int i = 0; i < eyeTasks.size(); i++) {
+                    eyeTasks.get(i).record(overlay);
+                }
+                overlay.publish();
+            }
+            if (governor != null) {
+                for (int i = 0; i < eyeTasks.size(); i++) {
+                    EyeTask eyeTask = eyeTasks.get(i);
+                    if (eyeTask.durationNanos >= 0) {
+                        governor.onEyeDone(eyeTask.isLearning, eyeTask.durationNanos);
+                    }
+                }
+            }
+            if (hasLearnt()) {
+                learnFrames++;
+                notifyEyesFound(METHOD_LEARNING);
+            } else {
+                matchFrames++;
+                notifyEyesFound(METHOD_MATCHING);
+            }
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Eyes detection failed", e);
+        } finally {
+            eyeTasks.clear();
+            frame.release();
+        }
     }
 
     @Override
-    public void execute(Mat matrixGray, Mat matrixRGBA, Rect face, EyesCallback callback) {
-        this.matrixGray = matrixGray;
-        this.matrixRGBA = matrixRGBA;
-        this.face = face;
+    public void execute(FaceDetectionResult result, EyesCallback callback) {
         this.eyesCallback = callback;
+        FaceDetectionResult droppedResult;
+        synchronized (this) {
+            droppedResult = pendingResult;
+            pendingResult = result;
+        }
+        if (droppedResult != null) {
+            droppedResult.getFrame().release();
+        }
         isRunning = true;
         executor.execute(this);
     }
@@ -88,37 +228,166 @@ public class EyesDetectionInteractorImpl implements Interactor, EyesDetectionInt
         this.isRunning = isRunning;
     }
 
-    private void extractEyes() {
-        if (isRunning) {
-            // computing eye areas as well as splitting it
-            Rect rightEyeArea = getEyeArea(face.x + face.width / 16,
-                    (int) (face.y + (face.height / 4.5)),
-                    (face.width - 2 * face.width / 16) / 2,
-                    (int) (face.height / 3.0));
-            Rect leftEyeArea = getEyeArea(face.x + face.width / 16
-                    + (face.width - 2 * face.width / 16) / 2,
-                    (int) (face.y + (face.height / 4.5)),
-                    (face.width - 2 * face.width / 16) / 2,
-                    (int) (face.height / 3.0));
-
-            FaceDrawerOpenCV.drawEyesRectangles(rightEyeArea, leftEyeArea, matrixRGBA);
-
-            String methodForEyes;
-            if (learnFrames < LEARN_FRAMES_LIMIT) {
-                templateRight = buildTemplate(rightEyeArea, IRIS_MIN_SIZE, matrixGray, matrixRGBA,
-                        detectorEye);
-                templateLeft = buildTemplate(leftEyeArea, IRIS_MIN_SIZE, matrixGray, matrixRGBA,
-                        detectorEye);
-                learnFrames++;
-                methodForEyes = "building Template with Detect multiscale, frame: " + learnFrames;
+    @Override
+    public void release() {
+        isRunning = false;
+        isReleaseRequested = true;
+        executor.execute(this);
+    }
+
+    /**
+     * @param workGovernor decides the eyes work of each face, null to process every face
+     */
+    public void setWorkGovernor(EyeWorkGovernor workGovernor) {
+        this.workGovernor = workGovernor;
+    }
+
+    /**
+     * @param eyesOverlay where the eyes found are published, null to only track them
+     */
+    public void setEyesOverlay(EyesOverlay eyesOverlay) {
+        this.eyesOverlay = eyesOverlay;
+    }
+
+    private void sortBySize(FaceRects faces) {
+        if (faceOrder.length < faces.size()) {
+            faceOrder = new int[faces.size()];
+        }
+        for (int i = 0; i < faces.size(); i++) {
+            int area = faces.getWidth(i) * faces.getHeight(i);
+            int j = i;
+            while (j > 0 && area > faces.getWidth(faceOrder[j - 1])
+                    * faces.getHeight(faceOrder[j - 1])) {
+                faceOrder[j] = faceOrder[j - 1];
+                j--;
+            }
+            faceOrder[j] = i;
+        }
+    }
+
+    private boolean hasLearnt() {
+        for (int i = 0; i < eyeTasks.size(); i++) {
+            if (eyeTasks.get(i).isLearning) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void addEyeTasks(int faceIndex, FaceDetectionResult result, Mat matrixGray,
+                             EyesOverlay overlay, EyeWorkGovernor governor) {
+        EyeTrackState track = trackStates.get(result.getTrackId(faceIndex));
+        boolean canLearn = true;
+        if (governor != null) {
+            EyeWorkGovernor.EyeWork work = governor.decide(
+                    needsLearning(track.getRightEye()) || needsLearning(track.getLeftEye()),
+                    track.getRightEye().hasTemplate() || track.getLeftEye().hasTemplate());
+            if (work == EyeWorkGovernor.EyeWork.NONE) {
+                return;
+            }
+            canLearn = work == EyeWorkGovernor.EyeWork.LEARN;
+        }
+        FaceRects faces = result.getFaces();
+        if (!track.cropFace(matrixGray, faces.getX(faceIndex), faces.getY(faceIndex),
+                faces.getWidth(faceIndex), faces.getHeight(faceIndex))) {
+            return;
+        }
+
+        track.toFrame(RIGHT_EYE_AREA, rightEyeFrameArea);
+        track.toFrame(LEFT_EYE_AREA, leftEyeFrameArea);
+        if (overlay != null) {
+            overlay.addEyeArea(rightEyeFrameArea);
+            overlay.addEyeArea(leftEyeFrameArea);
+        }
+
+        nextEyeTask().set(RIGHT_EYE_AREA, track, track.getRightEye(), canLearn);
+        nextEyeTask().set(LEFT_EYE_AREA, track, track.getLeftEye(), canLearn);
+    }
+
+    /**
+     * @return a reused task added to the tasks of the frame
+     */
+    private EyeTask nextEyeTask() {
+        int index = eyeTasks.size();
+        if (index == reusableTasks.size()) {
+            reusableTasks.add(new EyeTask());
+        }
+        EyeTask eyeTask = reusableTasks.get(index);
+        eyeTasks.add(eyeTask);
+        return eyeTask;
+    }
+
+    /**
+     * <p>Builds or matches the template of one eye, each task only uses its own
+     * workspace and joining the tasks publishes the templates to the next frame.
+     * Tasks are reused across frames</p>
+     */
+    private class EyeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private Rect area;
+        private EyeTrackState track;
+        private EyeTemplateWorkspace workspace;
+        private boolean isLearning;
+        // cost of the task, -1 when there was nothing to do
+        private long durationNanos = -1;
+        // what was found, recorded once every task is joined
+        private boolean isFound;
+
+        /**
+         * @param area     eye area in face crop coordinates
+         * @param canLearn false to only match the template, even a stale one
+         */
+        void set(Rect area, EyeTrackState track, EyeTemplateWorkspace workspace,
+                 boolean canLearn) {
+            reinitialize();
+            this.area = area;
+            this.track = track;
+            this.workspace = workspace;
+            this.isLearning = canLearn && needsLearning(workspace);
+            durationNanos = -1;
+            isFound = false;
+        }
+
+        @Override
+        protected void compute() {
+            if (!isLearning && !workspace.hasTemplate()) {
+                return;
+            }
+            long start = System.nanoTime();
+            try {
+                isFound = processEye();
+            } finally {
+                durationNanos = System.nanoTime() - start;
+            }
+        }
+
+        private boolean processEye() {
+            if (isLearning) {
+                CascadeClassifier detectorEye = detectorsEye.acquire();
+                try {
+                    return buildTemplate(area, IRIS_SIZE, track, detectorEye, workspace);
+                } finally {
+                    detectorsEye.release(detectorEye);
+                }
+            }
+            // Template still matches well, keep using it for template matching
+            return matchEye(area, track, workspace);
+        }
+
+        /**
+         * Records what the task found, on the interactor thread once the tasks are joined
+         */
+        void record(EyesOverlay overlay) {
+            if (!isFound) {
+                return;
+            }
+            if (isLearning) {
+                overlay.addLearntEye(workspace.getTemplateArea(), workspace.getIris());
             } else {
-                // Learning finished, use the new templates for template matching
-                matchEye(rightEyeArea, templateRight, matrixGray, matrixRGBA);
-                matchEye(leftEyeArea, templateLeft, matrixGray, matrixRGBA);
-//                resetChronometerOfFrames();
-                methodForEyes = "match eye with Template, frame: " + learnFrames;
+                overlay.addMatchedEye(workspace.getMatchTopLeft(),
+                        workspace.getMatchBottomRight());
             }
-            notifyEyesFound(methodForEyes);
         }
     }
 
@@ -130,104 +399,151 @@ public class EyesDetectionInteractorImpl implements Interactor, EyesDetectionInt
                 height);
     }
 
-    private synchronized void resetChronometerOfFrames() {
-        if (learnFramesCounter > LEARN_FRAMES_MATCH_EYE) {
-            learnFrames = 0;
-            learnFramesCounter = 0;
-        }
-        learnFramesCounter++;
+    private static boolean needsLearning(EyeTemplateWorkspace workspace) {
+        return !workspace.hasTemplate()
+                || workspace.getPoorMatches() >= POOR_MATCHES_TO_RELEARN;
     }
 
     /**
-     * Matches concrete point of the eye by using template with TM_SQDIFF_NORMED
+     * Matches concrete point of the eye by using template with TM_SQDIFF_NORMED on the
+     * face crop, the result is written to the workspace buffers reused across frames.
+     * A small window around the last match is searched first, the whole area only when
+     * the template is not found well enough there
+     *
+     * @return true when the template was matched, its corners are in the workspace
      */
-    private static void matchEye(Rect area, Mat builtTemplate, Mat matrixGray, Mat matrixRGBA) {
-        Point matchLoc;
+    private static boolean matchEye(Rect area, EyeTrackState track,
+                                    EyeTemplateWorkspace workspace) {
+        // when there is not built template we skip it
+        if (!workspace.hasTemplate()) {
+            return false;
+        }
+        Mat builtTemplate = workspace.getTemplate();
         try {
-            // when there is not builtTemplate we skip it
-            if (builtTemplate.cols() == 0 || builtTemplate.rows() == 0) {
-                return;
+            Rect searched = workspace.getSearchWindow(area, SEARCH_WINDOW_MARGIN);
+            Core.MinMaxLocResult minMaxLocResult = null;
+            if (searched != null) {
+                minMaxLocResult = matchTemplate(track.getFaceCrop(), searched, builtTemplate,
+                        workspace.getWindowMatchResult(searched.width, searched.height));
             }
-            Mat submatGray = matrixGray.submat(area);
-            int cols = submatGray.cols() - builtTemplate.cols() + 1;
-            int rows = submatGray.rows() - builtTemplate.rows() + 1;
-            Mat outputTemplateMat = new Mat(cols, rows, CvType.CV_8U);
-
-            Imgproc.matchTemplate(submatGray, builtTemplate, outputTemplateMat,
-                    Imgproc.TM_SQDIFF_NORMED);
-            Core.MinMaxLocResult minMaxLocResult = Core.minMaxLoc(outputTemplateMat);
+            if (minMaxLocResult == null || 1 - minMaxLocResult.minVal < MIN_MATCH_SCORE) {
+                searched = area;
+                minMaxLocResult = matchTemplate(track.getFaceCrop(), area, builtTemplate,
+                        workspace.getMatchResult(area.width, area.height));
+            }
+            workspace.countMatch(1 - minMaxLocResult.minVal >= MIN_MATCH_SCORE);
             // when is difference in matching methods, the best match is max / min value
-            matchLoc = minMaxLocResult.minLoc;
-            Point matchLocTx = new Point(matchLoc.x + area.x, matchLoc.y + area.y);
-            Point matchLocTy = new Point(matchLoc.x + builtTemplate.cols() + area.x,
-                    matchLoc.y + builtTemplate.rows() + area.y);
+            Point matchLoc = new Point(minMaxLocResult.minLoc.x + searched.x,
+                    minMaxLocResult.minLoc.y + searched.y);
+            workspace.setMatchLocation(matchLoc.x, matchLoc.y);
+            Point matchLocTx = workspace.getMatchTopLeft();
+            track.toFrame(matchLoc, matchLocTx);
+            matchLoc.x += builtTemplate.cols();
+            matchLoc.y += builtTemplate.rows();
+            Point matchLocTy = workspace.getMatchBottomRight();
+            track.toFrame(matchLoc, matchLocTy);
+            return true;
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Eye template matching failed", e);
+            return false;
+        }
+    }
 
-            FaceDrawerOpenCV.drawMatchedEye(matchLocTx, matchLocTy, matrixRGBA);
-        } catch (Exception e) {
-            e.printStackTrace();
+    /**
+     * @param region searched part of the face crop
+     * @return best {@code TM_SQDIFF_NORMED} match, relative to the region
+     */
+    private static Core.MinMaxLocResult matchTemplate(Mat faceCrop, Rect region, Mat template,
+                                                      Mat result) {
+        Mat submatGray = faceCrop.submat(region);
+        try {
+            Imgproc.matchTemplate(submatGray, template, result, Imgproc.TM_SQDIFF_NORMED);
+            return Core.minMaxLoc(result);
+        } finally {
+            submatGray.release();
         }
     }
 
     /**
-     * <p>Build a template from a specific eye area previously substracted
-     * uses detectMultiScale for this area, then uses minMaxLoc method to
-     * detect iris from the detected eye</p>
+     * <p>Build a template from a specific eye area of the face crop previously substracted
+     * uses detectMultiScale for this area, with eye sizes bounded by the crop geometry,
+     * then uses minMaxLoc method to detect iris from the detected eye</p>
      *
-     * @param area Preformatted Area
-     * @param size minimum iris size
-     * @param grayMat image in gray
-     * @param rgbaMat image in color
+     * @param area Preformatted Area in face crop coordinates
+     * @param size iris template size in face crop coordinates
+     * @param track face track whose crop is searched, it maps the results to the frame
      * @param detectorEye Haar Cascade classifier
-     * @return built template
+     * @param workspace where the built template is stored, cleared when no eye is found
+     * @return true when a template was built, the iris and template area are in the workspace
      */
-    @NonNull
-    private static Mat buildTemplate(Rect area, final int size,
-                                     @NonNull Mat grayMat,
-                                     @NonNull Mat rgbaMat,
-                                     CascadeClassifier detectorEye) {
-        Mat template = new Mat();
+    private static boolean buildTemplate(Rect area, final int size,
+                                         @NonNull EyeTrackState track,
+                                         CascadeClassifier detectorEye,
+                                         EyeTemplateWorkspace workspace) {
+        Mat grayMat = track.getFaceCrop();
+        MatOfRect eyes = workspace.getEyes();
         Mat graySubMatEye = grayMat.submat(area);
-        MatOfRect eyes = new MatOfRect();
-        Rect eyeTemplate;
-        detectorEye.detectMultiScale(graySubMatEye, eyes, 1.15, 2,
-                Objdetect.CASCADE_FIND_BIGGEST_OBJECT
-                        | Objdetect.CASCADE_SCALE_IMAGE, new Size(EYE_MIN_SIZE, EYE_MIN_SIZE),
-                new Size());
+        try {
+            detectorEye.detectMultiScale(graySubMatEye, eyes, 1.15, 2,
+                    Objdetect.CASCADE_FIND_BIGGEST_OBJECT
+                            | Objdetect.CASCADE_SCALE_IMAGE, EYE_MIN_SIZE, EYE_MAX_SIZE);
+        } finally {
+            graySubMatEye.release();
+        }
 
         Rect[] eyesArray = eyes.toArray();
-        if (eyesArray.length > 0) {
-            Rect e = eyesArray[0];
-            e.x = area.x + e.x;
-            e.y = area.y + e.y;
-            Rect eyeRectangle = getEyeArea((int) e.tl().x,
-                    (int) (e.tl().y + e.height * 0.4),
-                    e.width,
-                    (int) (e.height * 0.6));
-            graySubMatEye = grayMat.submat(eyeRectangle);
-            Mat rgbaMatEye = rgbaMat.submat(eyeRectangle);
-
-
-            Core.MinMaxLocResult minMaxLoc = Core.minMaxLoc(graySubMatEye);
-
-            FaceDrawerOpenCV.drawIrisCircle(rgbaMatEye, minMaxLoc);
-            Point iris = new Point();
+        if (eyesArray.length == 0) {
+            workspace.clearTemplate();
+            return false;
+        }
+        Rect e = eyesArray[0];
+        e.x = area.x + e.x;
+        e.y = area.y + e.y;
+        Rect eyeRectangle = getEyeArea((int) e.tl().x,
+                (int) (e.tl().y + e.height * 0.4),
+                e.width,
+                (int) (e.height * 0.6));
+        Mat grayMatEye = grayMat.submat(eyeRectangle);
+        Mat grayMatIris = null;
+        try {
+            Core.MinMaxLocResult minMaxLoc = Core.minMaxLoc(grayMatEye);
+
+            Point iris = workspace.getIris();
             iris.x = minMaxLoc.minLoc.x + eyeRectangle.x;
             iris.y = minMaxLoc.minLoc.y + eyeRectangle.y;
-            eyeTemplate = getEyeArea((int) iris.x - size / 2,
-                    (int) iris.y
-                            - size / 2, size, size);
-            FaceDrawerOpenCV.drawEyeRectangle(eyeTemplate, rgbaMat);
-            template = (grayMat.submat(eyeTemplate)).clone();
+            // the template is kept inside the crop even when the iris is close to its border
+            Rect eyeTemplate = getEyeArea(
+                    clamp((int) iris.x - size / 2, EyeTrackState.FACE_CROP_SIZE - size),
+                    clamp((int) iris.y - size / 2, EyeTrackState.FACE_CROP_SIZE - size),
+                    size, size);
+            grayMatIris = grayMat.submat(eyeTemplate);
+            workspace.setTemplate(grayMatIris);
+            workspace.setMatchLocation(eyeTemplate.x, eyeTemplate.y);
+
+            track.toFrame(iris, iris);
+            track.toFrame(eyeTemplate, workspace.getTemplateArea());
+            return true;
+        } finally {
+            grayMatEye.release();
+            if (grayMatIris != null) {
+                grayMatIris.release();
+            }
         }
-        return template;
     }
 
-    private void notifyEyesFound(final String methodForEyes) {
-        mainThread.post(new Runnable() {
-            @Override
-            public void run() {
-                eyesCallback.onEyesDetected(methodForEyes);
-            }
-        });
+    private static int clamp(int value, int max) {
+        return Math.max(0, Math.min(value, max));
+    }
+
+    private void notifyEyesFound(String methodForEyes) {
+        this.methodForEyes = methodForEyes;
+        if (isNotificationPosted.compareAndSet(false, true)) {
+            mainThread.post(notifyEyesFound);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "frames learning templates: " + learnFrames + ", matching: " + matchFrames;
     }
 }
@@ -16,10 +16,8 @@
 
 package com.raulh82vlc.face_detection_sample.opencv.domain;
 
-import com.raulh82vlc.face_detection_sample.model.Face;
-
-import org.opencv.core.Mat;
-import org.opencv.core.Rect;
+import com.raulh82vlc.face_detection_sample.opencv.domain.frame.FaceDetectionResult;
+import com.raulh82vlc.face_detection_sample.opencv.domain.frame.FrameLease;
 
 /**
  * Face Detection interactor contract for a Face recognition Use case
@@ -27,13 +25,29 @@ import org.opencv.core.Rect;
  */
 
 public interface FDInteractor {
-    void execute(Mat gray, FaceCallback callback);
+    /**
+     * Takes over the caller reference of the frame, which is released once detection ends
+     */
+    void execute(FrameLease frame, FaceCallback callback);
+
+    /**
+     * Forgets the faces followed so far on the detection thread, before the next frame,
+     * e.g. when the camera starts again
+     */
+    void reset();
+
+    /**
+     * Frees the tracker and the detector on the detection thread, once no more frames are
+     * executed
+     */
+    void release();
 
     /**
-     * Face Callback used when OpenCV returns a face and this was transformed to {@link Face}
+     * Face Callback used once per frame when OpenCV detection finishes, with all its faces.
+     * It receives a reference of the result frame which must be released or passed on
      * @author Raul Hernandez Lopez.
      */
     interface FaceCallback {
-        void onFaceDetected(Rect faceOpenCV, Face face);
+        void onFacesDetected(FaceDetectionResult result);
     }
 }
@@ -16,18 +16,24 @@
 
 package com.raulh82vlc.face_detection_sample.opencv.domain;
 
-import android.support.annotation.NonNull;
 import android.util.Log;
 
+import com.raulh82vlc.ar_face_detection_sample.BuildConfig;
 import com.raulh82vlc.face_detection_sample.domain.InteractorExecutor;
 import com.raulh82vlc.face_detection_sample.domain.MainThread;
-import com.raulh82vlc.face_detection_sample.model.Face;
+import com.raulh82vlc.face_detection_sample.model.FaceRects;
+import com.raulh82vlc.face_detection_sample.opencv.domain.detector.FaceDetector;
+import com.raulh82vlc.face_detection_sample.opencv.domain.frame.FaceDetectionResult;
+import com.raulh82vlc.face_detection_sample.opencv.domain.frame.FrameLease;
+import com.raulh82vlc.face_detection_sample.opencv.domain.frame.FramePyramid;
 
 import org.opencv.core.Mat;
-import org.opencv.core.MatOfRect;
 import org.opencv.core.Rect;
 import org.opencv.core.Size;
-import org.opencv.objdetect.CascadeClassifier;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Face Detection implementation of {@link FDInteractor} contract
@@ -38,68 +44,447 @@ public class FDInteractorImpl implements Interactor, FDInteractor {
 
     private static final String TAG = FDInteractor.class.getSimpleName();
     private static final float RELATIVE_FACE_SIZE = 0.2f;
-    private int absoluteFaceSize = 0;
-    // Cascade classifier
-    private final CascadeClassifier detectorFace;
-    // Image Matrices
-    private Mat matrixGray;
+    // Tracking mode: margin added around a face to search it again and its scale range
+    private static final float TRACKING_REGION_MARGIN = 0.5f;
+    private static final float TRACKING_MIN_SCALE = 0.8f;
+    private static final float TRACKING_MAX_SCALE = 1.25f;
+    // changed regions bigger than this part of the frame are not worth searching alone
+    private static final float MAX_CHANGED_AREA = 0.5f;
+    // frames a face can be missed and still get its track id back
+    private static final int MAX_MISSED_FRAMES = 5;
+    // results waiting for the main thread, beyond it they are dropped
+    private static final int MAX_PENDING_RESULTS = 4;
+    // Detector backend
+    private final FaceDetector detectorFace;
+    // Detection buffers reused across frames
+    private final FaceRects detectedFaces = new FaceRects();
+    private final Size minFaceSize = new Size();
+    private final Size maxFaceSize = new Size();
+    // Downscaled detection, faces are mapped back to the full resolution of the frame
+    private volatile float detectionScale = 1f;
+    // Smallest face searched, relative to the frame height
+    private volatile float relativeFaceSize = RELATIVE_FACE_SIZE;
+    // Tunes the detection to hold a frame budget, null for fixed parameters
+    private volatile LatencyBudgetController budgetController;
+    private float trackedScale = 1f;
+    // Tracking mode, searching only around the faces of the previous frame
+    private boolean isTrackingMode = false;
+    private int fullDetectionInterval = 1;
+    private int framesSinceFullDetection = 0;
+    private final FaceRects trackedFaces = new FaceRects();
+    private final Rect trackingRegion = new Rect();
+    private final Size minTrackedSize = new Size();
+    private final Size maxTrackedSize = new Size();
+    // Part of the frame that changed since the last detection, detection coordinates
+    private final Rect changedRegion = new Rect();
+    private final Rect scaledChangedRegion = new Rect();
+    private boolean hasChangedRegion = false;
+    private final Rect searchRegion = new Rect();
+    // Optical flow tracking of the faces between full detections, instead of regions
+    private LKFaceTracker faceTracker;
+    // Track ids of the faces across frames
+    private final FaceTrackAssociator trackAssociator =
+            new FaceTrackAssociator(MAX_MISSED_FRAMES);
+    // Latest frame waiting for detection
+    private FrameLease pendingFrame;
+    // Results waiting for the main thread, drained by a single reusable runnable
+    private final BlockingQueue<FaceDetectionResult> detectionResults =
+            new ArrayBlockingQueue<>(MAX_PENDING_RESULTS);
+    private final AtomicBoolean isNotificationPosted = new AtomicBoolean(false);
+    private final Runnable notifyFacesFound = new Runnable() {
+        @Override
+        public void run() {
+            isNotificationPosted.set(false);
+            FaceDetectionResult result;
+            while ((result = detectionResults.poll()) != null) {
+                faceCallback.onFacesDetected(result);
+            }
+        }
+    };
     // Interactor mechanism
     private final InteractorExecutor executorImageRecognition;
     private final MainThread mainThread;
     private FaceCallback faceCallback;
+    private final AtomicBoolean isResetRequested = new AtomicBoolean(false);
+    private volatile boolean isReleaseRequested = false;
+    // only read and written by the interactor thread, so native objects are released once
+    private boolean isReleased = false;
 
-    public FDInteractorImpl(CascadeClassifier detectorFace,
+    public FDInteractorImpl(FaceDetector detectorFace,
                             MainThread mainThread, InteractorExecutor threadExecutor) {
         this.detectorFace = detectorFace;
         executorImageRecognition =  threadExecutor;
         this.mainThread = mainThread;
     }
 
+    /**
+     * <p>Once a face is found, following frames only search an expanded region around its
+     * last position at a narrowed scale range. The whole frame is searched again every
+     * {@code fullDetectionInterval} frames or as soon as a face is lost</p>
+     */
+    public void setTrackingMode(boolean isTrackingMode, int fullDetectionInterval) {
+        if (fullDetectionInterval <= 0) {
+            throw new IllegalArgumentException("Full detection interval must be positive");
+        }
+        this.isTrackingMode = isTrackingMode;
+        this.fullDetectionInterval = fullDetectionInterval;
+    }
+
+    /**
+     * <p>In tracking mode, faces are followed with optical flow between full detections
+     * instead of searching them again around their last position, which is cheaper.
+     * The whole frame is searched again as soon as the tracker loses a face</p>
+     *
+     * @param faceTracker tracker, null to search the faces around their last position
+     */
+    public void setFaceTracker(LKFaceTracker faceTracker) {
+        this.faceTracker = faceTracker;
+    }
+
+    /**
+     * Runs the cascade over a downscaled copy of the frame, e.g. 0.5 or 0.25, as its cost
+     * follows the number of pixels. Faces are still reported in frame coordinates
+     */
+    public void setDetectionScale(float detectionScale) {
+        if (detectionScale <= 0 || detectionScale > 1) {
+            throw new IllegalArgumentException("Detection scale must be in (0, 1]");
+        }
+        this.detectionScale = detectionScale;
+    }
+
+    /**
+     * Smallest face searched relative to the frame height, bigger is faster
+     */
+    public void setRelativeFaceSize(float relativeFaceSize) {
+        if (relativeFaceSize <= 0 || relativeFaceSize >= 1) {
+            throw new IllegalArgumentException("Relative face size must be in (0, 1)");
+        }
+        this.relativeFaceSize = relativeFaceSize;
+    }
+
+    /**
+     * <p>Hands the detection scale, the scale factor of the detector and the smallest face
+     * size over to a controller, which tunes them after every frame to hold its budget.
+     * Its current level is applied straight away</p>
+     *
+     * @param budgetController controller, null to keep the parameters as they are
+     */
+    public void setLatencyBudgetController(LatencyBudgetController budgetController) {
+        this.budgetController = budgetController;
+        if (budgetController != null) {
+            applyBudgetLevel(budgetController);
+        }
+    }
+
+    private void applyBudgetLevel(LatencyBudgetController controller) {
+        setDetectionScale(controller.getDetectionScale());
+        setRelativeFaceSize(controller.getRelativeFaceSize());
+        if (detectorFace != null) {
+            detectorFace.getParameters().setScaleFactor(controller.getScaleFactor());
+        }
+    }
+
     @Override
-    public void execute(Mat gray, FaceCallback callback) {
-        this.matrixGray = gray;
+    public void execute(FrameLease frame, FaceCallback callback) {
         this.faceCallback = callback;
+        FrameLease droppedFrame;
+        synchronized (this) {
+            droppedFrame = pendingFrame;
+            pendingFrame = frame;
+        }
+        if (droppedFrame != null) {
+            // changes of the dropped frame are searched on the one replacing it
+            union(frame.getChangedRegion(), droppedFrame.getChangedRegion());
+            droppedFrame.release();
+        }
+        executorImageRecognition.execute(this);
+    }
+
+    @Override
+    public void reset() {
+        isResetRequested.set(true);
         executorImageRecognition.execute(this);
     }
 
-    @NonNull
-    private MatOfRect startDetection() {
-        if (absoluteFaceSize == 0) {
-            int height = matrixGray.rows();
-            if (Math.round(height * RELATIVE_FACE_SIZE) > 0) {
-                absoluteFaceSize = Math.round(height * RELATIVE_FACE_SIZE);
+    @Override
+    public void release() {
+        isReleaseRequested = true;
+        executorImageRecognition.execute(this);
+    }
+
+    private synchronized FrameLease takePendingFrame() {
+        FrameLease frame = pendingFrame;
+        pendingFrame = null;
+        return frame;
+    }
+
+    private void startDetection(FramePyramid pyramid, Rect frameChangedRegion,
+                                FaceRects faces) {
+        float scale = detectionScale;
+        if (scale != trackedScale) {
+            // tracked faces were found at another scale
+            trackedFaces.clear();
+            trackedScale = scale;
+        }
+        // level shared with the other stages of the frame
+        Mat detectionGray = pyramid.level(scale);
+        // changes add up over tracked frames until the next detection
+        scaledChangedRegion.x = (int) (frameChangedRegion.x * scale);
+        scaledChangedRegion.y = (int) (frameChangedRegion.y * scale);
+        scaledChangedRegion.width = (int) Math.ceil(frameChangedRegion.width * scale);
+        scaledChangedRegion.height = (int) Math.ceil(frameChangedRegion.height * scale);
+        if (hasChangedRegion) {
+            union(changedRegion, scaledChangedRegion);
+        } else {
+            changedRegion.x = scaledChangedRegion.x;
+            changedRegion.y = scaledChangedRegion.y;
+            changedRegion.width = scaledChangedRegion.width;
+            changedRegion.height = scaledChangedRegion.height;
+            hasChangedRegion = true;
+        }
+        // tracked faces are kept in detection coordinates
+        detectTrackedFaces(detectionGray, faces);
+        if (scale < 1f) {
+            for (int i = 0; i < faces.size(); i++) {
+                faces.set(i, Math.round(faces.getX(i) / scale),
+                        Math.round(faces.getY(i) / scale),
+                        Math.round(faces.getWidth(i) / scale),
+                        Math.round(faces.getHeight(i) / scale));
             }
         }
-        MatOfRect faces = new MatOfRect();
-        if (detectorFace != null) {
+    }
+
+    private void detectTrackedFaces(Mat matrixGray, FaceRects faces) {
+        LKFaceTracker tracker = faceTracker;
+        boolean isTrackLost = false;
+        if (isTrackingMode && trackedFaces.size() > 0
+                && framesSinceFullDetection < fullDetectionInterval) {
+            framesSinceFullDetection++;
+            if (tracker == null) {
+                detectInTrackedRegions(matrixGray, faces);
+                trackedFaces.copyFrom(faces);
+                return;
+            }
+            if (tracker.track(matrixGray, faces)) {
+                trackedFaces.copyFrom(faces);
+                return;
+            }
+            // too many points lost, this frame is searched in full
+            isTrackLost = true;
+        }
+        framesSinceFullDetection = 1;
+        if (!isTrackingMode || isTrackLost || trackedFaces.size() == 0
+                || !detectInChangedRegion(matrixGray, faces)) {
+            detectInFullFrame(matrixGray, faces);
+        }
+        hasChangedRegion = false;
+        if (isTrackingMode && tracker != null) {
+            tracker.seed(matrixGray, faces);
+        }
+        trackedFaces.copyFrom(faces);
+    }
+
+    private boolean hasDetector() {
+        return detectorFace != null;
+    }
+
+    /**
+     * Runs the detector over the image and leaves the faces found in {@code detectedFaces}
+     *
+     * @return number of faces found
+     */
+    private int detectFaces(Mat matrixGray, Size minSize, Size maxSize) {
+        detectorFace.detect(matrixGray, minSize, maxSize, detectedFaces);
+        return detectedFaces.size();
+    }
+
+    private void detectInFullFrame(Mat matrixGray, FaceRects faces) {
+        int absoluteFaceSize = Math.round(matrixGray.rows() * relativeFaceSize);
+        faces.clear();
+        if (hasDetector()) {
             if (matrixGray.height() > 0) {
-                detectorFace.detectMultiScale(matrixGray, faces, 1.1, 2, 2,
-                        new Size(absoluteFaceSize, absoluteFaceSize), new Size());
+                minFaceSize.width = absoluteFaceSize;
+                minFaceSize.height = absoluteFaceSize;
+                detectFaces(matrixGray, minFaceSize, maxFaceSize);
+                faces.copyFrom(detectedFaces);
             }
         }
-        return faces;
+    }
+
+    /**
+     * <p>Keeps the tracked faces away from the changed region, as nothing moved there,
+     * and searches only that region, grown by a face so faces crossing it are found whole</p>
+     *
+     * @return false when the region is too big to be worth it, then nothing is detected
+     */
+    private boolean detectInChangedRegion(Mat matrixGray, FaceRects faces) {
+        if (!hasDetector() || matrixGray.empty()) {
+            return false;
+        }
+        int absoluteFaceSize = Math.round(matrixGray.rows() * relativeFaceSize);
+        int margin = absoluteFaceSize;
+        for (int i = 0; i < trackedFaces.size(); i++) {
+            margin = Math.max(margin,
+                    Math.max(trackedFaces.getWidth(i), trackedFaces.getHeight(i)));
+        }
+        searchRegion.x = Math.max(0, changedRegion.x - margin);
+        searchRegion.y = Math.max(0, changedRegion.y - margin);
+        searchRegion.width = Math.min(matrixGray.cols(),
+                changedRegion.x + changedRegion.width + margin) - searchRegion.x;
+        searchRegion.height = Math.min(matrixGray.rows(),
+                changedRegion.y + changedRegion.height + margin) - searchRegion.y;
+        if (searchRegion.area() > matrixGray.total() * MAX_CHANGED_AREA) {
+            return false;
+        }
+        faces.clear();
+        for (int i = 0; i < trackedFaces.size(); i++) {
+            if (trackedFaces.getX(i) >= searchRegion.x + searchRegion.width
+                    || trackedFaces.getY(i) >= searchRegion.y + searchRegion.height
+                    || trackedFaces.getX(i) + trackedFaces.getWidth(i) <= searchRegion.x
+                    || trackedFaces.getY(i) + trackedFaces.getHeight(i) <= searchRegion.y) {
+                faces.add(trackedFaces.getX(i), trackedFaces.getY(i),
+                        trackedFaces.getWidth(i), trackedFaces.getHeight(i));
+            }
+        }
+        if (searchRegion.width < absoluteFaceSize || searchRegion.height < absoluteFaceSize) {
+            return true;
+        }
+        minFaceSize.width = absoluteFaceSize;
+        minFaceSize.height = absoluteFaceSize;
+        Mat regionGray = matrixGray.submat(searchRegion);
+        int count = detectFaces(regionGray, minFaceSize, maxFaceSize);
+        regionGray.release();
+        for (int i = 0; i < count; i++) {
+            faces.add(searchRegion.x + detectedFaces.getX(i),
+                    searchRegion.y + detectedFaces.getY(i),
+                    detectedFaces.getWidth(i), detectedFaces.getHeight(i));
+        }
+        return true;
+    }
+
+    private static void union(Rect target, Rect other) {
+        int right = Math.max(target.x + target.width, other.x + other.width);
+        int bottom = Math.max(target.y + target.height, other.y + other.height);
+        target.x = Math.min(target.x, other.x);
+        target.y = Math.min(target.y, other.y);
+        target.width = right - target.x;
+        target.height = bottom - target.y;
+    }
+
+    private void detectInTrackedRegions(Mat matrixGray, FaceRects faces) {
+        faces.clear();
+        if (!hasDetector()) {
+            return;
+        }
+        boolean isTrackLost = false;
+        for (int i = 0; i < trackedFaces.size(); i++) {
+            int size = Math.max(trackedFaces.getWidth(i), trackedFaces.getHeight(i));
+            int margin = Math.round(size * TRACKING_REGION_MARGIN);
+            trackingRegion.x = Math.max(0, trackedFaces.getX(i) - margin);
+            trackingRegion.y = Math.max(0, trackedFaces.getY(i) - margin);
+            trackingRegion.width = Math.min(matrixGray.cols(),
+                    trackedFaces.getX(i) + trackedFaces.getWidth(i) + margin) - trackingRegion.x;
+            trackingRegion.height = Math.min(matrixGray.rows(),
+                    trackedFaces.getY(i) + trackedFaces.getHeight(i) + margin) - trackingRegion.y;
+            minTrackedSize.width = minTrackedSize.height = Math.round(size * TRACKING_MIN_SCALE);
+            maxTrackedSize.width = maxTrackedSize.height = Math.round(size * TRACKING_MAX_SCALE);
+
+            Mat regionGray = matrixGray.submat(trackingRegion);
+            int count = detectFaces(regionGray, minTrackedSize, maxTrackedSize);
+            regionGray.release();
+            if (count == 0) {
+                isTrackLost = true;
+                continue;
+            }
+            // the biggest face of the region is the tracked one
+            int biggest = 0;
+            for (int j = 1; j < count; j++) {
+                if (detectedFaces.getWidth(j) * detectedFaces.getHeight(j)
+                        > detectedFaces.getWidth(biggest) * detectedFaces.getHeight(biggest)) {
+                    biggest = j;
+                }
+            }
+            faces.add(trackingRegion.x + detectedFaces.getX(biggest),
+                    trackingRegion.y + detectedFaces.getY(biggest),
+                    detectedFaces.getWidth(biggest), detectedFaces.getHeight(biggest));
+        }
+        if (isTrackLost) {
+            // next frame searches the whole frame again
+            framesSinceFullDetection = fullDetectionInterval;
+        }
     }
 
     @Override
     public void run() {
-        Rect[] facesArray = startDetection().toArray();
-        Log.i(TAG, "Number of faces: " + facesArray.length);
-        for (final Rect rect : facesArray) {
-            extractCharacteristics(rect);
+        FrameLease frame = takePendingFrame();
+        if (isReleaseRequested) {
+            if (frame != null) {
+                frame.release();
+            }
+            if (!isReleased) {
+                releaseTracking();
+                isReleased = true;
+            }
+            return;
+        }
+        if (isResetRequested.getAndSet(false)) {
+            resetTracking();
+        }
+        if (frame == null) {
+            return;
+        }
+        try {
+            FaceDetectionResult result = frame.getResult();
+            long start = System.nanoTime();
+            startDetection(frame.pyramid(), frame.getChangedRegion(), result.getFaces());
+            trackAssociator.associate(result);
+            long duration = System.nanoTime() - start;
+            result.setDetectionDurationNanos(duration);
+            LatencyBudgetController controller = budgetController;
+            if (controller != null && controller.onFrameDetected(duration)) {
+                applyBudgetLevel(controller);
+            }
+            if (BuildConfig.DEBUG) {
+                Log.i(TAG, "Number of faces: " + result.getFaces().size());
+            }
+            frame.retain();
+            notifyFacesFound(result);
+        } finally {
+            frame.release();
         }
     }
 
-    private void extractCharacteristics(Rect rect) {
-        notifyFaceFound(rect, new Face(rect.x,
-                rect.y, rect.width, rect.height));
+    private void resetTracking() {
+        trackedFaces.clear();
+        // track ids keep growing, so eye states of old tracks are never matched again
+        trackAssociator.reset();
+        framesSinceFullDetection = 0;
+        hasChangedRegion = false;
+        LKFaceTracker tracker = faceTracker;
+        if (tracker != null) {
+            tracker.reset();
+        }
     }
 
-    private void notifyFaceFound(final Rect faceOpenCV, final Face face) {
-        mainThread.post(new Runnable() {
-            @Override
-            public void run() {
-                faceCallback.onFaceDetected(faceOpenCV, face);
-            }
-        });
+    private void releaseTracking() {
+        resetTracking();
+        LKFaceTracker tracker = faceTracker;
+        if (tracker != null) {
+            tracker.release();
+        }
+        if (hasDetector()) {
+            detectorFace.release();
+        }
+    }
+
+    private void notifyFacesFound(FaceDetectionResult result) {
+        if (!detectionResults.offer(result)) {
+            // main thread is too far behind, this frame is not rendered
+            result.getFrame().release();
+            return;
+        }
+        if (isNotificationPosted.compareAndSet(false, true)) {
+            mainThread.post(notifyFacesFound);
+        }
     }
 }
@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2017 Raul Hernandez Lopez @raulh82vlc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.raulh82vlc.face_detection_sample.opencv.domain;
+
+import com.raulh82vlc.face_detection_sample.model.FaceRects;
+import com.raulh82vlc.face_detection_sample.opencv.domain.frame.FaceDetectionResult;
+
+/**
+ * <p>Gives every face a track id that stays the same across frames. Faces are associated
+ * with the tracks of the previous frame by overlap, or by the distance between their
+ * centres when they moved too fast to overlap, best pairs first. Tracks with no face are
+ * kept for a few frames, so a face missed once gets its id back.
+ * Not thread safe, it is used by one detection thread</p>
+ *
+ * @author Raul Hernandez Lopez.
+ */
+class FaceTrackAssociator {
+    // intersection over union of a face and a track to be the same face
+    private static final float MIN_IOU = 0.3f;
+    // distance between centres relative to the track size, below overlap matches
+    private static final float MAX_CENTER_DISTANCE = 0.5f;
+
+    private final int maxMissedFrames;
+    private int nextTrackId = 1;
+    // Tracks of the previous frame and the ones being built
+    private FaceRects tracks = new FaceRects();
+    private int[] trackIds = new int[8];
+    private int[] missedFrames = new int[8];
+    private FaceRects nextTracks = new FaceRects();
+    private int[] nextTrackIds = new int[8];
+    private int[] nextMissedFrames = new int[8];
+    // Association buffers, scores of face f and track t at f * tracks + t
+    private float[] scores = new float[64];
+    private int[] faceTracks = new int[8];
+    private boolean[] isTrackMatched = new boolean[8];
+
+    FaceTrackAssociator(int maxMissedFrames) {
+        if (maxMissedFrames < 0) {
+            throw new IllegalArgumentException("Max missed frames cannot be negative");
+        }
+        this.maxMissedFrames = maxMissedFrames;
+    }
+
+    /**
+     * Sets the track id of every face of the result, faces in frame coordinates
+     */
+    void associate(FaceDetectionResult result) {
+        FaceRects faces = result.getFaces();
+        int faceCount = faces.size();
+        int trackCount = tracks.size();
+        ensureCapacity(faceCount, trackCount);
+        for (int f = 0; f < faceCount; f++) {
+            faceTracks[f] = -1;
+            for (int t = 0; t < trackCount; t++) {
+                scores[f * trackCount + t] = score(faces, f, t);
+            }
+        }
+        for (int t = 0; t < trackCount; t++) {
+            isTrackMatched[t] = false;
+        }
+        // greedy, there are only a few faces per frame
+        while (true) {
+            int bestFace = -1;
+            int bestTrack = -1;
+            float bestScore = 0;
+            for (int f = 0; f < faceCount; f++) {
+                if (faceTracks[f] >= 0) {
+                    continue;
+                }
+                for (int t = 0; t < trackCount; t++) {
+                    if (!isTrackMatched[t] && scores[f * trackCount + t] > bestScore) {
+                        bestScore = scores[f * trackCount + t];
+                        bestFace = f;
+                        bestTrack = t;
+                    }
+                }
+            }
+            if (bestFace < 0) {
+                break;
+            }
+            faceTracks[bestFace] = bestTrack;
+            isTrackMatched[bestTrack] = true;
+        }
+
+        nextTracks.clear();
+        for (int f = 0; f < faceCount; f++) {
+            int trackId = faceTracks[f] >= 0 ? trackIds[faceTracks[f]] : nextTrackId++;
+            result.setTrackId(f, trackId);
+            addNextTrack(faces, f, trackId, 0);
+        }
+        for (int t = 0; t < trackCount; t++) {
+            if (!isTrackMatched[t] && missedFrames[t] < maxMissedFrames) {
+                addNextTrack(tracks, t, trackIds[t], missedFrames[t] + 1);
+            }
+        }
+        swapTracks();
+    }
+
+    void reset() {
+        tracks.clear();
+    }
+
+    /**
+     * @return how likely face f is track t, 0 when it cannot be
+     */
+    private float score(FaceRects faces, int f, int t) {
+        int left = Math.max(faces.getX(f), tracks.getX(t));
+        int top = Math.max(faces.getY(f), tracks.getY(t));
+        int right = Math.min(faces.getX(f) + faces.getWidth(f),
+                tracks.getX(t) + tracks.getWidth(t));
+        int bottom = Math.min(faces.getY(f) + faces.getHeight(f),
+                tracks.getY(t) + tracks.getHeight(t));
+        if (right > left && bottom > top) {
+            float intersection = (float) (right - left) * (bottom - top);
+            float union = (float) faces.getWidth(f) * faces.getHeight(f)
+                    + (float) tracks.getWidth(t) * tracks.getHeight(t) - intersection;
+            float iou = intersection / union;
+            if (iou >= MIN_IOU) {
+                return iou;
+            }
+        }
+        float dx = faces.getX(f) + faces.getWidth(f) / 2f
+                - tracks.getX(t) - tracks.getWidth(t) / 2f;
+        float dy = faces.getY(f) + faces.getHeight(f) / 2f
+                - tracks.getY(t) - tracks.getHeight(t) / 2f;
+        float maxDistance = Math.max(tracks.getWidth(t), tracks.getHeight(t))
+                * MAX_CENTER_DISTANCE;
+        float distance = (float) Math.sqrt(dx * dx + dy * dy);
+        if (distance >= maxDistance) {
+            return 0;
+        }
+        // always below any overlap match
+        return (1 - distance / maxDistance) * MIN_IOU * 0.99f;
+    }
+
+    private void addNextTrack(FaceRects source, int index, int trackId, int missed) {
+        int next = nextTracks.size();
+        if (next >= nextTrackIds.length) {
+            nextTrackIds = grow(nextTrackIds, next + 1);
+            nextMissedFrames = grow(nextMissedFrames, next + 1);
+        }
+        nextTracks.add(source.getX(index), source.getY(index), source.getWidth(index),
+                source.getHeight(index));
+        nextTrackIds[next] = trackId;
+        nextMissedFrames[next] = missed;
+    }
+
+    private void swapTracks() {
+        FaceRects rects = tracks;
+        tracks = nextTracks;
+        nextTracks = rects;
+        int[] ids = trackIds;
+        trackIds = nextTrackIds;
+        nextTrackIds = ids;
+        int[] missed = missedFrames;
+        missedFrames = nextMissedFrames;
+        nextMissedFrames = missed;
+    }
+
+    private void ensureCapacity(int faceCount, int trackCount) {
+        if (scores.length < faceCount * trackCount) {
+            scores = new float[faceCount * trackCount];
+        }
+        if (faceTracks.length < faceCount) {
+            faceTracks = new int[faceCount];
+        }
+        if (isTrackMatched.length < trackCount) {
+            isTrackMatched = new boolean[trackCount];
+        }
+    }
+
+    private static int[] grow(int[] values, int count) {
+        int[] grown = new int[Math.max(count, values.length * 2)];
+        System.arraycopy(values, 0, grown, 0, values.length);
+        return grown;
+    }
+}
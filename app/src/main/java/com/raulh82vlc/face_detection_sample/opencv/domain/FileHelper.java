@@ -17,8 +17,14 @@
 package com.raulh82vlc.face_detection_sample.opencv.domain;
 
 import android.content.Context;
+import android.content.pm.PackageManager;
+import android.content.res.AssetFileDescriptor;
+
+import com.raulh82vlc.face_detection_sample.cascade.HaarCascade;
+import com.raulh82vlc.face_detection_sample.cascade.HaarCascadeBinary;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -34,22 +40,72 @@ public final class FileHelper {
     }
 
     /**
-     * Reads a Cascade file from a raw resource and returns the {@link File}
+     * Reads a Cascade file from a raw resource and returns the {@link File}.
+     * The copy is kept, so it is only made again once the app is installed or updated,
+     * the native classifiers need a file while the raw resource is inside the APK
      */
     public static File readCascadeFile(Context context, int rawFile, String dir,
                                        String fileOutput) throws IOException {
-        // load cascade file from application resources
-        InputStream is = context.getResources().openRawResource(rawFile);
         File cascadeDir = context.getDir(dir, Context.MODE_PRIVATE);
         File cascadeFile = new File(cascadeDir, fileOutput);
-        FileOutputStream os = new FileOutputStream(cascadeFile);
-        byte[] buffer = new byte[4096];
-        int bytesRead;
-        while ((bytesRead = is.read(buffer)) != -1) {
-            os.write(buffer, 0, bytesRead);
+        if (cascadeFile.isFile() && cascadeFile.lastModified() >= getLastUpdateTime(context)) {
+            return cascadeFile;
+        }
+        // copied aside first, so a copy cut short is never taken for a complete one
+        File partialFile = new File(cascadeDir, fileOutput + ".partial");
+        // load cascade file from application resources
+        InputStream is = context.getResources().openRawResource(rawFile);
+        try {
+            FileOutputStream os = new FileOutputStream(partialFile);
+            try {
+                byte[] buffer = new byte[4096];
+                int bytesRead;
+                while ((bytesRead = is.read(buffer)) != -1) {
+                    os.write(buffer, 0, bytesRead);
+                }
+            } finally {
+                os.close();
+            }
+        } finally {
+            is.close();
+        }
+        if (!partialFile.renameTo(cascadeFile)) {
+            partialFile.delete();
+            throw new IOException("Failed to save cascade file " + cascadeFile);
         }
-        is.close();
-        os.close();
         return cascadeFile;
     }
+
+    /**
+     * @return when the APK holding the raw resources was installed or last updated
+     */
+    private static long getLastUpdateTime(Context context) {
+        try {
+            return context.getPackageManager()
+                    .getPackageInfo(context.getPackageName(), 0).lastUpdateTime;
+        } catch (PackageManager.NameNotFoundException e) {
+            // never happens for the own package, the copy is made again anyway
+            return Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Memory maps a binary cascade from the assets, which are stored uncompressed
+     * in the APK, so there is no copy to the files dir and no XML parsing
+     */
+    public static HaarCascade mapCascadeAsset(Context context, String assetPath)
+            throws IOException {
+        AssetFileDescriptor descriptor = context.getAssets().openFd(assetPath);
+        try {
+            FileInputStream input = descriptor.createInputStream();
+            try {
+                return HaarCascadeBinary.map(input.getChannel(), descriptor.getStartOffset(),
+                        descriptor.getLength());
+            } finally {
+                input.close();
+            }
+        } finally {
+            descriptor.close();
+        }
+    }
 }
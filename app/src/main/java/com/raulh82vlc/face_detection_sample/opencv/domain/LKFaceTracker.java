@@ -0,0 +1,298 @@
+/*
+ * Copyright (C) 2017 Raul Hernandez Lopez @raulh82vlc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.raulh82vlc.face_detection_sample.opencv.domain;
+
+import com.raulh82vlc.face_detection_sample.model.FaceRects;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfFloat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.core.TermCriteria;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.video.Video;
+
+import java.util.Arrays;
+
+/**
+ * <p>Face tracker following feature points seeded inside each detected face with
+ * pyramidal Lucas-Kanade optical flow. Every face moves by the median displacement of its
+ * points and scales by the median change of distance between them, points moving away
+ * from that median are dropped. Once a face keeps too few of its seeded points it is
+ * lost and the faces have to be detected and seeded again.
+ * Not thread safe, it is used by one detection thread</p>
+ *
+ * @author Raul Hernandez Lopez.
+ */
+public class LKFaceTracker {
+    // Seeding
+    private static final int MAX_POINTS_PER_FACE = 30;
+    private static final double POINT_QUALITY = 0.01;
+    private static final double MIN_POINT_DISTANCE = 4;
+    // inner part of the face, its borders are often background
+    private static final float SEED_MARGIN = 0.2f;
+    // Optical flow
+    private static final int WINDOW_SIZE = 15;
+    private static final int MAX_PYRAMID_LEVEL = 2;
+    private static final int MAX_ITERATIONS = 20;
+    private static final double EPSILON = 0.03;
+    // Losing a face
+    private static final int MIN_POINTS_PER_FACE = 4;
+    private static final float MIN_SURVIVING_POINTS = 0.5f;
+    // distance to the median displacement of an outlier point, relative to the face size
+    private static final float MAX_RESIDUAL = 0.1f;
+    private static final float MIN_RESIDUAL = 2f;
+
+    private final Size windowSize = new Size(WINDOW_SIZE, WINDOW_SIZE);
+    private final TermCriteria criteria = new TermCriteria(TermCriteria.COUNT + TermCriteria.EPS,
+            MAX_ITERATIONS, EPSILON);
+    private final Mat previousGray = new Mat();
+    // Faces, boxes kept as floats so small motions do not get lost by rounding
+    private int faceCount = 0;
+    private float[] boxes = new float[0];
+    private int[] seededPoints = new int[0];
+    // Points of all faces, x and y, the ones of face i start at pointStart[i]
+    private int[] pointStart = new int[1];
+    private float[] points = new float[0];
+    private float[] nextPoints = new float[0];
+    private byte[] status = new byte[0];
+    // Median buffers and median motion of the last face moved
+    private float moveX;
+    private float moveY;
+    private float[] dx = new float[0];
+    private float[] dy = new float[0];
+    private float[] scales = new float[0];
+    // OpenCV buffers reused across frames
+    private final MatOfPoint corners = new MatOfPoint();
+    private final int[] cornerValues = new int[MAX_POINTS_PER_FACE * 2];
+    private final MatOfPoint2f previousPoints = new MatOfPoint2f();
+    private final MatOfPoint2f trackedPoints = new MatOfPoint2f();
+    private final MatOfByte trackStatus = new MatOfByte();
+    private final MatOfFloat trackErrors = new MatOfFloat();
+    private final Rect seedRegion = new Rect();
+
+    /**
+     * Seeds the points of the faces just detected on this frame
+     */
+    public void seed(Mat gray, FaceRects faces) {
+        faceCount = faces.size();
+        ensureFaceCapacity(faceCount);
+        ensurePointCapacity(faceCount * MAX_POINTS_PER_FACE);
+        int pointCount = 0;
+        for (int i = 0; i < faceCount; i++) {
+            pointStart[i] = pointCount;
+            int width = faces.getWidth(i);
+            int height = faces.getHeight(i);
+            boxes[i * 4] = faces.getX(i);
+            boxes[i * 4 + 1] = faces.getY(i);
+            boxes[i * 4 + 2] = width;
+            boxes[i * 4 + 3] = height;
+            seedRegion.x = faces.getX(i) + Math.round(width * SEED_MARGIN);
+            seedRegion.y = faces.getY(i) + Math.round(height * SEED_MARGIN);
+            seedRegion.width = Math.round(width * (1 - 2 * SEED_MARGIN));
+            seedRegion.height = Math.round(height * (1 - 2 * SEED_MARGIN));
+            if (seedRegion.width > 0 && seedRegion.height > 0) {
+                Mat face = gray.submat(seedRegion);
+                Imgproc.goodFeaturesToTrack(face, corners, MAX_POINTS_PER_FACE, POINT_QUALITY,
+                        MIN_POINT_DISTANCE);
+                face.release();
+                int count = (int) corners.total();
+                if (count > 0) {
+                    corners.get(0, 0, cornerValues);
+                }
+                for (int j = 0; j < count; j++) {
+                    points[pointCount * 2] = seedRegion.x + cornerValues[j * 2];
+                    points[pointCount * 2 + 1] = seedRegion.y + cornerValues[j * 2 + 1];
+                    pointCount++;
+                }
+            }
+            seededPoints[i] = pointCount - pointStart[i];
+        }
+        pointStart[faceCount] = pointCount;
+        gray.copyTo(previousGray);
+    }
+
+    /**
+     * Moves the faces seeded or tracked on the previous frame to this one
+     *
+     * @param faces faces tracked, only meaningful when tracking succeeds
+     * @return false once a face is lost, then faces have to be detected again
+     */
+    public boolean track(Mat gray, FaceRects faces) {
+        int pointCount = pointStart[faceCount];
+        if (faceCount == 0 || pointCount == 0 || previousGray.empty()) {
+            return false;
+        }
+        previousPoints.create(pointCount, 1, CvType.CV_32FC2);
+        previousPoints.put(0, 0, points);
+        Video.calcOpticalFlowPyrLK(previousGray, gray, previousPoints, trackedPoints,
+                trackStatus, trackErrors, windowSize, MAX_PYRAMID_LEVEL, criteria, 0, 1e-4);
+        trackedPoints.get(0, 0, nextPoints);
+        trackStatus.get(0, 0, status);
+
+        faces.clear();
+        int kept = 0;
+        for (int i = 0; i < faceCount; i++) {
+            int start = pointStart[i];
+            int end = pointStart[i + 1];
+            pointStart[i] = kept;
+            if (!moveFace(i, start, end, gray.cols(), gray.rows())) {
+                faceCount = 0;
+                return false;
+            }
+            kept = keepInliers(i, start, end, kept);
+            if (kept - pointStart[i] < minPoints(i)) {
+                faceCount = 0;
+                return false;
+            }
+            faces.add(Math.round(boxes[i * 4]), Math.round(boxes[i * 4 + 1]),
+                    Math.round(boxes[i * 4 + 2]), Math.round(boxes[i * 4 + 3]));
+        }
+        pointStart[faceCount] = kept;
+        gray.copyTo(previousGray);
+        return true;
+    }
+
+    public void reset() {
+        faceCount = 0;
+        pointStart[0] = 0;
+    }
+
+    public void release() {
+        reset();
+        previousGray.release();
+        corners.release();
+        previousPoints.release();
+        trackedPoints.release();
+        trackStatus.release();
+        trackErrors.release();
+    }
+
+    private int minPoints(int face) {
+        return Math.max(MIN_POINTS_PER_FACE,
+                (int) Math.ceil(seededPoints[face] * MIN_SURVIVING_POINTS));
+    }
+
+    /**
+     * Moves and scales the box of a face by the median motion of its points
+     *
+     * @return false when too few points were tracked or the face left the frame
+     */
+    private boolean moveFace(int face, int start, int end, int width, int height) {
+        int count = 0;
+        int scaleCount = 0;
+        int previous = -1;
+        for (int p = start; p < end; p++) {
+            if (status[p] == 0) {
+                continue;
+            }
+            dx[count] = nextPoints[p * 2] - points[p * 2];
+            dy[count] = nextPoints[p * 2 + 1] - points[p * 2 + 1];
+            count++;
+            if (previous >= 0) {
+                // distance between consecutive tracked points before and after
+                float before = distance(points, previous, p);
+                if (before > 1f) {
+                    scales[scaleCount++] = distance(nextPoints, previous, p) / before;
+                }
+            }
+            previous = p;
+        }
+        if (count < minPoints(face)) {
+            return false;
+        }
+        moveX = median(dx, count);
+        moveY = median(dy, count);
+        float scale = scaleCount > 0 ? median(scales, scaleCount) : 1f;
+        int i = face * 4;
+        float boxWidth = boxes[i + 2] * scale;
+        float boxHeight = boxes[i + 3] * scale;
+        float centerX = boxes[i] + boxes[i + 2] / 2 + moveX;
+        float centerY = boxes[i + 1] + boxes[i + 3] / 2 + moveY;
+        float left = Math.max(0f, centerX - boxWidth / 2);
+        float top = Math.max(0f, centerY - boxHeight / 2);
+        float right = Math.min(width, centerX + boxWidth / 2);
+        float bottom = Math.min(height, centerY + boxHeight / 2);
+        if (right - left < 1f || bottom - top < 1f) {
+            return false;
+        }
+        boxes[i] = left;
+        boxes[i + 1] = top;
+        boxes[i + 2] = right - left;
+        boxes[i + 3] = bottom - top;
+        return true;
+    }
+
+    /**
+     * Compacts the tracked points of a face following its median motion as next points
+     *
+     * @return end of the kept points
+     */
+    private int keepInliers(int face, int start, int end, int kept) {
+        float maxResidual = Math.max(MIN_RESIDUAL,
+                Math.max(boxes[face * 4 + 2], boxes[face * 4 + 3]) * MAX_RESIDUAL);
+        for (int p = start; p < end; p++) {
+            if (status[p] == 0) {
+                continue;
+            }
+            float residualX = nextPoints[p * 2] - points[p * 2] - moveX;
+            float residualY = nextPoints[p * 2 + 1] - points[p * 2 + 1] - moveY;
+            if (residualX * residualX + residualY * residualY <= maxResidual * maxResidual) {
+                // kept never passes p, so points still to be read are not overwritten
+                points[kept * 2] = nextPoints[p * 2];
+                points[kept * 2 + 1] = nextPoints[p * 2 + 1];
+                kept++;
+            }
+        }
+        return kept;
+    }
+
+    private static float distance(float[] values, int a, int b) {
+        float x = values[b * 2] - values[a * 2];
+        float y = values[b * 2 + 1] - values[a * 2 + 1];
+        return (float) Math.sqrt(x * x + y * y);
+    }
+
+    private static float median(float[] values, int count) {
+        Arrays.sort(values, 0, count);
+        return count % 2 == 1 ? values[count / 2]
+                : (values[count / 2 - 1] + values[count / 2]) / 2;
+    }
+
+    private void ensureFaceCapacity(int faces) {
+        if (seededPoints.length < faces) {
+            boxes = new float[faces * 4];
+            seededPoints = new int[faces];
+            pointStart = new int[faces + 1];
+        }
+    }
+
+    private void ensurePointCapacity(int count) {
+        if (status.length < count) {
+            points = new float[count * 2];
+            nextPoints = new float[count * 2];
+            status = new byte[count];
+            dx = new float[count];
+            dy = new float[count];
+            scales = new float[count];
+        }
+    }
+}
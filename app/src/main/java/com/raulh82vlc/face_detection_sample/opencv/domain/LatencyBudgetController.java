@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2017 Raul Hernandez Lopez @raulh82vlc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.raulh82vlc.face_detection_sample.opencv.domain;
+
+/**
+ * <p>Closed loop controller holding the face detection time of a frame within a budget.
+ * It walks a ladder of levels going from the most accurate bounds, level 0, to the fastest
+ * ones: every level lowers the detection resolution and raises the scale factor and the
+ * minimum face size a step. The average detection time moves one level down when it goes
+ * over the budget and one level up when it is well below, waiting some frames after every
+ * adjustment so the average settles first.
+ * Not thread safe, it is fed by one detection thread</p>
+ *
+ * @author Raul Hernandez Lopez.
+ */
+public class LatencyBudgetController {
+    private static final int LEVELS = 5;
+    // weight of the last frame in the average detection time
+    private static final float AVERAGE_WEIGHT = 0.2f;
+    // frames after an adjustment before the next one
+    private static final int COOLDOWN_FRAMES = 10;
+    // part of the budget below which a more accurate level is tried
+    private static final float UPGRADE_RATIO = 0.6f;
+
+    private final long budgetNanos;
+    private final float maxDetectionScale;
+    private final float minDetectionScale;
+    private final double minScaleFactor;
+    private final double maxScaleFactor;
+    private final float minRelativeFaceSize;
+    private final float maxRelativeFaceSize;
+    private Listener listener;
+    // State
+    private int level = 0;
+    private float averageNanos = 0;
+    private boolean hasAverage = false;
+    private int framesSinceAdjustment = 0;
+    // Stats
+    private volatile long adjustments = 0;
+
+    /**
+     * @param budgetNanos detection time of a frame to hold, e.g. 33 ms for 30 fps
+     */
+    public LatencyBudgetController(long budgetNanos,
+                                   float maxDetectionScale, float minDetectionScale,
+                                   double minScaleFactor, double maxScaleFactor,
+                                   float minRelativeFaceSize, float maxRelativeFaceSize) {
+        if (budgetNanos <= 0) {
+            throw new IllegalArgumentException("Budget must be positive");
+        }
+        if (minDetectionScale <= 0 || maxDetectionScale > 1
+                || minDetectionScale > maxDetectionScale) {
+            throw new IllegalArgumentException("Detection scales must be in (0, 1] and ordered");
+        }
+        if (minScaleFactor <= 1 || minScaleFactor > maxScaleFactor) {
+            throw new IllegalArgumentException("Scale factors must be bigger than 1 and ordered");
+        }
+        if (minRelativeFaceSize <= 0 || maxRelativeFaceSize >= 1
+                || minRelativeFaceSize > maxRelativeFaceSize) {
+            throw new IllegalArgumentException("Face sizes must be in (0, 1) and ordered");
+        }
+        this.budgetNanos = budgetNanos;
+        this.maxDetectionScale = maxDetectionScale;
+        this.minDetectionScale = minDetectionScale;
+        this.minScaleFactor = minScaleFactor;
+        this.maxScaleFactor = maxScaleFactor;
+        this.minRelativeFaceSize = minRelativeFaceSize;
+        this.maxRelativeFaceSize = maxRelativeFaceSize;
+    }
+
+    /**
+     * Told of every adjustment on the detection thread, for telemetry
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @return true when the level changed, then the parameters have to be applied again
+     */
+    public boolean onFrameDetected(long detectionNanos) {
+        if (hasAverage) {
+            averageNanos += (detectionNanos - averageNanos) * AVERAGE_WEIGHT;
+        } else {
+            averageNanos = detectionNanos;
+            hasAverage = true;
+        }
+        if (++framesSinceAdjustment < COOLDOWN_FRAMES) {
+            return false;
+        }
+        int previousLevel = level;
+        if (averageNanos > budgetNanos && level < LEVELS - 1) {
+            level++;
+        } else if (averageNanos < budgetNanos * UPGRADE_RATIO && level > 0) {
+            level--;
+        } else {
+            return false;
+        }
+        framesSinceAdjustment = 0;
+        adjustments++;
+        if (listener != null) {
+            listener.onLevelAdjusted(previousLevel, level, (long) averageNanos,
+                    getDetectionScale(), getScaleFactor(), getRelativeFaceSize());
+        }
+        return true;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public long getAverageNanos() {
+        return (long) averageNanos;
+    }
+
+    public long getBudgetNanos() {
+        return budgetNanos;
+    }
+
+    public long getAdjustments() {
+        return adjustments;
+    }
+
+    public float getDetectionScale() {
+        return maxDetectionScale - (maxDetectionScale - minDetectionScale) * progress();
+    }
+
+    public double getScaleFactor() {
+        return minScaleFactor + (maxScaleFactor - minScaleFactor) * progress();
+    }
+
+    public float getRelativeFaceSize() {
+        return minRelativeFaceSize + (maxRelativeFaceSize - minRelativeFaceSize) * progress();
+    }
+
+    private float progress() {
+        return (float) level / (LEVELS - 1);
+    }
+
+    /**
+     * Latency budget adjustments listener, for telemetry
+     * @author Raul Hernandez Lopez.
+     */
+    public interface Listener {
+        void onLevelAdjusted(int previousLevel, int level, long averageNanos,
+                             float detectionScale, double scaleFactor, float relativeFaceSize);
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2017 Raul Hernandez Lopez @raulh82vlc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.raulh82vlc.face_detection_sample.opencv.domain;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * <p>Cheap motion check of camera frames on a tiny gray thumbnail, compared against the
+ * thumbnail of the last frame accepted for detection, so slow changes add up until they
+ * count as motion. Frames with no motion can skip detection and keep the last faces,
+ * a frame is accepted anyway once {@code maxStaticFrames} frames in a row were skipped.
+ * Not thread safe, it is used by the camera thread</p>
+ *
+ * @author Raul Hernandez Lopez.
+ */
+public class MotionGate {
+    private static final int THUMBNAIL_WIDTH = 40;
+    private static final int THUMBNAIL_HEIGHT = 30;
+    // gray level change of a thumbnail pixel above camera noise
+    private static final int PIXEL_THRESHOLD = 12;
+    // changed thumbnail pixels needed for motion
+    private static final int MIN_CHANGED_PIXELS = 6;
+
+    private final int maxStaticFrames;
+    private final Size thumbnailSize = new Size(THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT);
+    private final Mat thumbnail = new Mat();
+    private byte[] current = new byte[THUMBNAIL_WIDTH * THUMBNAIL_HEIGHT];
+    private byte[] reference = new byte[THUMBNAIL_WIDTH * THUMBNAIL_HEIGHT];
+    private boolean hasReference = false;
+    private int frameWidth;
+    private int frameHeight;
+    private int staticFrames = 0;
+    // Changed thumbnail pixels of the last frame checked, right and bottom inclusive
+    private int changedLeft;
+    private int changedTop;
+    private int changedRight;
+    private int changedBottom;
+    // Stats
+    private long framesChecked = 0;
+    private long framesSkipped = 0;
+
+    public MotionGate(int maxStaticFrames) {
+        if (maxStaticFrames <= 0) {
+            throw new IllegalArgumentException("Max static frames must be positive");
+        }
+        this.maxStaticFrames = maxStaticFrames;
+    }
+
+    /**
+     * @return true when the frame changed since the last accepted one, or has to be
+     * detected anyway, then {@link #accept()} once it is actually given to detection
+     */
+    public boolean hasMotion(Mat gray) {
+        framesChecked++;
+        if (gray.cols() != frameWidth || gray.rows() != frameHeight) {
+            frameWidth = gray.cols();
+            frameHeight = gray.rows();
+            hasReference = false;
+        }
+        Imgproc.resize(gray, thumbnail, thumbnailSize, 0, 0, Imgproc.INTER_AREA);
+        thumbnail.get(0, 0, current);
+        if (!hasReference || staticFrames >= maxStaticFrames) {
+            setWholeFrameChanged();
+            return true;
+        }
+        int changed = 0;
+        changedLeft = THUMBNAIL_WIDTH;
+        changedTop = THUMBNAIL_HEIGHT;
+        changedRight = -1;
+        changedBottom = -1;
+        for (int y = 0; y < THUMBNAIL_HEIGHT; y++) {
+            int row = y * THUMBNAIL_WIDTH;
+            for (int x = 0; x < THUMBNAIL_WIDTH; x++) {
+                int difference = (current[row + x] & 0xff) - (reference[row + x] & 0xff);
+                if (difference > PIXEL_THRESHOLD || difference < -PIXEL_THRESHOLD) {
+                    changed++;
+                    changedLeft = Math.min(changedLeft, x);
+                    changedRight = Math.max(changedRight, x);
+                    changedTop = Math.min(changedTop, y);
+                    changedBottom = Math.max(changedBottom, y);
+                }
+            }
+        }
+        if (changed < MIN_CHANGED_PIXELS) {
+            staticFrames++;
+            framesSkipped++;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * The frame last checked becomes the reference of the following ones
+     */
+    public void accept() {
+        byte[] previous = reference;
+        reference = current;
+        current = previous;
+        hasReference = true;
+        staticFrames = 0;
+    }
+
+    /**
+     * Bounds of what changed on the frame last checked, in frame coordinates
+     */
+    public void getChangedRegion(Rect region) {
+        int left = changedLeft * frameWidth / THUMBNAIL_WIDTH;
+        int top = changedTop * frameHeight / THUMBNAIL_HEIGHT;
+        int right = ((changedRight + 1) * frameWidth + THUMBNAIL_WIDTH - 1) / THUMBNAIL_WIDTH;
+        int bottom = ((changedBottom + 1) * frameHeight + THUMBNAIL_HEIGHT - 1)
+                / THUMBNAIL_HEIGHT;
+        region.x = left;
+        region.y = top;
+        region.width = Math.min(frameWidth, right) - left;
+        region.height = Math.min(frameHeight, bottom) - top;
+    }
+
+    public void reset() {
+        hasReference = false;
+        staticFrames = 0;
+    }
+
+    public void release() {
+        reset();
+        thumbnail.release();
+    }
+
+    public long getFramesChecked() {
+        return framesChecked;
+    }
+
+    public long getFramesSkipped() {
+        return framesSkipped;
+    }
+
+    private void setWholeFrameChanged() {
+        changedLeft = 0;
+        changedTop = 0;
+        changedRight = THUMBNAIL_WIDTH - 1;
+        changedBottom = THUMBNAIL_HEIGHT - 1;
+    }
+}
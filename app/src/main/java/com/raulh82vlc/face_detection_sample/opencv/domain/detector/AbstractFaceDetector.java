@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2017 Raul Hernandez Lopez @raulh82vlc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.raulh82vlc.face_detection_sample.opencv.domain.detector;
+
+import com.raulh82vlc.face_detection_sample.model.FaceRects;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+
+/**
+ * <p>Base {@link FaceDetector} measuring the cost of every detection, so backends only
+ * implement the detection itself. Counters are written by the detection thread only</p>
+ *
+ * @author Raul Hernandez Lopez.
+ */
+public abstract class AbstractFaceDetector implements FaceDetector {
+
+    private final String name;
+    private final DetectorParameters parameters;
+    // Cost
+    private volatile long lastDetectionNanos;
+    private volatile long detectionCount;
+    private volatile long totalDetectionNanos;
+
+    protected AbstractFaceDetector(String name, DetectorParameters parameters) {
+        if (parameters == null) {
+            throw new IllegalArgumentException("Detector parameters must be instantiated");
+        }
+        this.name = name;
+        this.parameters = parameters;
+    }
+
+    @Override
+    public final void detect(Mat gray, Size minSize, Size maxSize, FaceRects faces) {
+        long start = System.nanoTime();
+        detect(gray, minSize, maxSize, faces, parameters.getScaleFactor(),
+                parameters.getMinNeighbours());
+        long duration = System.nanoTime() - start;
+        lastDetectionNanos = duration;
+        totalDetectionNanos += duration;
+        detectionCount++;
+    }
+
+    protected abstract void detect(Mat gray, Size minSize, Size maxSize, FaceRects faces,
+                                   double scaleFactor, int minNeighbours);
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public DetectorParameters getParameters() {
+        return parameters;
+    }
+
+    @Override
+    public long getLastDetectionNanos() {
+        return lastDetectionNanos;
+    }
+
+    @Override
+    public long getDetectionCount() {
+        return detectionCount;
+    }
+
+    @Override
+    public long getTotalDetectionNanos() {
+        return totalDetectionNanos;
+    }
+
+    @Override
+    public String toString() {
+        long count = detectionCount;
+        return name + " (" + parameters + "), detections: " + count
+                + ", mean: " + (count > 0 ? totalDetectionNanos / count / 1000 : 0) + " us"
+                + ", last: " + lastDetectionNanos / 1000 + " us";
+    }
+}
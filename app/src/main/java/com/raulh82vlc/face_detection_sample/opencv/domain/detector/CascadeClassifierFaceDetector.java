@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2017 Raul Hernandez Lopez @raulh82vlc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.raulh82vlc.face_detection_sample.opencv.domain.detector;
+
+import com.raulh82vlc.face_detection_sample.model.FaceRects;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfRect;
+import org.opencv.core.Size;
+import org.opencv.objdetect.CascadeClassifier;
+import org.opencv.objdetect.Objdetect;
+
+/**
+ * <p>{@link FaceDetector} of the native OpenCV classifier, either a Haar or an LBP cascade,
+ * as the classifier takes the feature type from the cascade file</p>
+ *
+ * @author Raul Hernandez Lopez.
+ */
+public class CascadeClassifierFaceDetector extends AbstractFaceDetector {
+
+    private final CascadeClassifier classifier;
+    // reused across detections
+    private final MatOfRect facesDetected = new MatOfRect();
+
+    public CascadeClassifierFaceDetector(String name, CascadeClassifier classifier,
+                                         DetectorParameters parameters) {
+        super(name, parameters);
+        if (classifier == null || classifier.empty()) {
+            throw new IllegalArgumentException("Cascade classifier must be loaded");
+        }
+        this.classifier = classifier;
+    }
+
+    @Override
+    protected void detect(Mat gray, Size minSize, Size maxSize, FaceRects faces,
+                          double scaleFactor, int minNeighbours) {
+        classifier.detectMultiScale(gray, facesDetected, scaleFactor, minNeighbours,
+                Objdetect.CASCADE_SCALE_IMAGE, minSize, maxSize);
+        // MatOfRect holds 4 ints per face, read in bulk without Rect objects
+        int count = (int) facesDetected.total();
+        if (count > 0) {
+            facesDetected.get(0, 0, faces.reserve(count));
+        } else {
+            faces.clear();
+        }
+    }
+
+    @Override
+    public void release() {
+        facesDetected.release();
+    }
+}
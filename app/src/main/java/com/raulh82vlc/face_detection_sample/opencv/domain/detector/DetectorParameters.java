@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2017 Raul Hernandez Lopez @raulh82vlc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.raulh82vlc.face_detection_sample.opencv.domain.detector;
+
+/**
+ * <p>Tunable parameters of a {@link FaceDetector}, set from any thread and read by the
+ * detection thread at the start of every detection</p>
+ *
+ * @author Raul Hernandez Lopez.
+ */
+public class DetectorParameters {
+    // step between scales, bigger is faster and misses more faces
+    private volatile double scaleFactor;
+    // overlapping hits needed to keep a face, bigger drops more false positives
+    private volatile int minNeighbours;
+
+    public DetectorParameters(double scaleFactor, int minNeighbours) {
+        setScaleFactor(scaleFactor);
+        setMinNeighbours(minNeighbours);
+    }
+
+    public double getScaleFactor() {
+        return scaleFactor;
+    }
+
+    public void setScaleFactor(double scaleFactor) {
+        if (scaleFactor <= 1) {
+            throw new IllegalArgumentException("Scale factor must be bigger than 1");
+        }
+        this.scaleFactor = scaleFactor;
+    }
+
+    public int getMinNeighbours() {
+        return minNeighbours;
+    }
+
+    public void setMinNeighbours(int minNeighbours) {
+        if (minNeighbours < 0) {
+            throw new IllegalArgumentException("Min neighbours cannot be negative");
+        }
+        this.minNeighbours = minNeighbours;
+    }
+
+    @Override
+    public String toString() {
+        return "scaleFactor=" + scaleFactor + ", minNeighbours=" + minNeighbours;
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2017 Raul Hernandez Lopez @raulh82vlc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.raulh82vlc.face_detection_sample.opencv.domain.detector;
+
+import com.raulh82vlc.face_detection_sample.model.FaceRects;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+
+/**
+ * Face detector contract, the backend used by the face detection interactor
+ * @author Raul Hernandez Lopez.
+ */
+public interface FaceDetector {
+    /**
+     * Finds the faces of a gray image, one detection at a time
+     *
+     * @param maxSize biggest face size, empty for no limit
+     * @param faces   faces found in image coordinates, cleared first
+     */
+    void detect(Mat gray, Size minSize, Size maxSize, FaceRects faces);
+
+    String getName();
+
+    /**
+     * Parameters read at every detection, so they can be tuned while running
+     */
+    DetectorParameters getParameters();
+
+    long getLastDetectionNanos();
+
+    long getDetectionCount();
+
+    long getTotalDetectionNanos();
+
+    /**
+     * Frees the buffers of the detector, it does not detect anymore afterwards
+     */
+    void release();
+}
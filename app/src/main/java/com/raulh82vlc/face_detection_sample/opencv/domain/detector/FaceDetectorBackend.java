@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2017 Raul Hernandez Lopez @raulh82vlc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.raulh82vlc.face_detection_sample.opencv.domain.detector;
+
+import android.content.Context;
+
+import com.raulh82vlc.ar_face_detection_sample.R;
+import com.raulh82vlc.face_detection_sample.cascade.CascadeDetector;
+import com.raulh82vlc.face_detection_sample.opencv.domain.CascadeClassifierPool;
+import com.raulh82vlc.face_detection_sample.opencv.domain.FileHelper;
+
+import org.opencv.objdetect.CascadeClassifier;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * <p>Available {@link FaceDetector} backends, chosen by name from the
+ * {@code face_detector_backend} resource, so a device class can be given another backend
+ * with a resource qualifier. LBP cascades use integer features and are several times
+ * faster than Haar ones on mobile CPUs, at a slightly lower detection rate.
+ * Tiled backends detect the tiles of a frame in parallel on the pool, one classifier per
+ * pool thread. Native backends load the XML cascade copied out of the APK once, the Java
+ * one maps its binary cascade straight from the APK</p>
+ *
+ * @author Raul Hernandez Lopez.
+ */
+public enum FaceDetectorBackend {
+    HAAR(1.1, 2) {
+        @Override
+        public FaceDetector create(Context context, ForkJoinPool pool) throws IOException {
+            return loadClassifier(context, R.raw.haarcascade_frontalface_alt2, "haar.xml");
+        }
+    },
+    LBP(1.1, 3) {
+        @Override
+        public FaceDetector create(Context context, ForkJoinPool pool) throws IOException {
+            return loadClassifier(context, R.raw.lbpcascade_frontalface, "lbp.xml");
+        }
+    },
+    HAAR_TILED(1.1, 2) {
+        @Override
+        public FaceDetector create(Context context, ForkJoinPool pool) throws IOException {
+            return loadTiledClassifiers(context, R.raw.haarcascade_frontalface_alt2,
+                    "haar.xml", pool);
+        }
+    },
+    LBP_TILED(1.1, 3) {
+        @Override
+        public FaceDetector create(Context context, ForkJoinPool pool) throws IOException {
+            return loadTiledClassifiers(context, R.raw.lbpcascade_frontalface, "lbp.xml",
+                    pool);
+        }
+    },
+    JAVA_HAAR(1.1, 2) {
+        @Override
+        public FaceDetector create(Context context, ForkJoinPool pool) throws IOException {
+            return new JavaCascadeFaceDetector(getName(), new CascadeDetector(
+                    FileHelper.mapCascadeAsset(context,
+                            "cascades/haarcascade_frontalface_alt2.bin"), pool),
+                    newParameters());
+        }
+    };
+
+    private final double scaleFactor;
+    private final int minNeighbours;
+
+    FaceDetectorBackend(double scaleFactor, int minNeighbours) {
+        this.scaleFactor = scaleFactor;
+        this.minNeighbours = minNeighbours;
+    }
+
+    /**
+     * Loads the cascade of this backend, slow, so never on the UI thread
+     *
+     * @param pool used by backends detecting in parallel
+     */
+    public abstract FaceDetector create(Context context, ForkJoinPool pool) throws IOException;
+
+    /**
+     * Default parameters of this backend, a new instance to be tuned by each detector
+     */
+    public DetectorParameters newParameters() {
+        return new DetectorParameters(scaleFactor, minNeighbours);
+    }
+
+    public String getName() {
+        return name().toLowerCase(Locale.US);
+    }
+
+    /**
+     * @param name backend name, as given by {@link #getName()}
+     */
+    public static FaceDetectorBackend fromName(String name) {
+        for (FaceDetectorBackend backend : values()) {
+            if (backend.getName().equals(name)) {
+                return backend;
+            }
+        }
+        throw new IllegalArgumentException("Unknown face detector backend " + name);
+    }
+
+    FaceDetector loadClassifier(Context context, int cascadeRes, String fileOutput)
+            throws IOException {
+        File cascadeFile = FileHelper.readCascadeFile(context, cascadeRes, "cascade",
+                fileOutput);
+        try {
+            return new CascadeClassifierFaceDetector(getName(), newClassifier(cascadeFile),
+                    newParameters());
+        } catch (IOException e) {
+            // copied again on the next launch
+            cascadeFile.delete();
+            throw e;
+        }
+    }
+
+    /**
+     * Loads a classifier per pool thread plus one for the whole frame task
+     */
+    FaceDetector loadTiledClassifiers(Context context, int cascadeRes, String fileOutput,
+                                      ForkJoinPool pool) throws IOException {
+        File cascadeFile = FileHelper.readCascadeFile(context, cascadeRes, "cascade",
+                fileOutput);
+        try {
+            CascadeClassifierPool classifiers = new CascadeClassifierPool(
+                    newClassifier(cascadeFile), cascadeFile.getAbsolutePath(),
+                    pool.getParallelism() + 1);
+            classifiers.loadAll();
+            return new TiledCascadeFaceDetector(getName(), classifiers, pool,
+                    newParameters());
+        } catch (IllegalStateException e) {
+            cascadeFile.delete();
+            throw new IOException(e.getMessage(), e);
+        } catch (IOException e) {
+            // copied again on the next launch
+            cascadeFile.delete();
+            throw e;
+        }
+    }
+
+    private static CascadeClassifier newClassifier(File cascadeFile) throws IOException {
+        CascadeClassifier classifier = new CascadeClassifier(cascadeFile.getAbsolutePath());
+        if (classifier.empty()) {
+            throw new IOException("Failed to load cascade classifier from "
+                    + cascadeFile.getAbsolutePath());
+        }
+        return classifier;
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2017 Raul Hernandez Lopez @raulh82vlc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.raulh82vlc.face_detection_sample.opencv.domain.detector;
+
+import com.raulh82vlc.face_detection_sample.cascade.CascadeDetector;
+import com.raulh82vlc.face_detection_sample.cascade.GrayImage;
+import com.raulh82vlc.face_detection_sample.model.FaceRects;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+
+/**
+ * <p>{@link FaceDetector} of the pure Java {@link CascadeDetector}, the gray image is copied
+ * once into a reused pixel buffer. Size bounds are taken as square, from their width</p>
+ *
+ * @author Raul Hernandez Lopez.
+ */
+public class JavaCascadeFaceDetector extends AbstractFaceDetector {
+
+    private final CascadeDetector detector;
+    // reused across detections
+    private final GrayImage grayImage = new GrayImage();
+    private byte[] grayPixels = new byte[0];
+
+    public JavaCascadeFaceDetector(String name, CascadeDetector detector,
+                                   DetectorParameters parameters) {
+        super(name, parameters);
+        if (detector == null) {
+            throw new IllegalArgumentException("Cascade detector must be instantiated");
+        }
+        this.detector = detector;
+    }
+
+    @Override
+    protected void detect(Mat gray, Size minSize, Size maxSize, FaceRects faces,
+                          double scaleFactor, int minNeighbours) {
+        int size = (int) gray.total();
+        if (grayPixels.length < size) {
+            grayPixels = new byte[size];
+        }
+        gray.get(0, 0, grayPixels);
+        grayImage.set(grayPixels, 0, gray.cols(), gray.cols(), gray.rows());
+        detector.detectMultiScale(grayImage, faces, scaleFactor, minNeighbours,
+                (int) minSize.width, (int) maxSize.width);
+    }
+
+    @Override
+    public void release() {
+        grayPixels = new byte[0];
+    }
+}
@@ -0,0 +1,317 @@
+/*
+ * Copyright (C) 2017 Raul Hernandez Lopez @raulh82vlc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.raulh82vlc.face_detection_sample.opencv.domain.detector;
+
+import com.raulh82vlc.face_detection_sample.model.FaceRects;
+import com.raulh82vlc.face_detection_sample.opencv.domain.CascadeClassifierPool;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfRect;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.objdetect.CascadeClassifier;
+import org.opencv.objdetect.Objdetect;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * <p>{@link FaceDetector} of the native OpenCV classifier splitting the frame into a grid of
+ * tiles, one per pool thread, detected at the same time with a classifier each.
+ * Tiles overlap by the biggest face they search, so every such face is whole in some tile,
+ * while bigger faces are searched on the whole frame by one more task, which is cheap as
+ * it only scans the coarse scales. Faces found twice around the tile borders are merged
+ * with non maximum suppression, keeping the biggest one.
+ * Frames too small for two tiles, e.g. most regions of interest, and faces too big for
+ * a tile are detected once on the calling thread instead. Tasks and their native buffers
+ * are reused whatever the frame size</p>
+ *
+ * @author Raul Hernandez Lopez.
+ */
+public class TiledCascadeFaceDetector extends AbstractFaceDetector {
+    // biggest face searched by the tiles relative to the frame height, bigger faces are
+    // searched on the whole frame
+    private static final float TILE_FACE_RATIO = 0.3f;
+    // part of the smaller face covered by a bigger one over which they are the same face
+    private static final float MAX_OVERLAP = 0.5f;
+
+    private final CascadeClassifierPool classifiers;
+    private final ForkJoinPool pool;
+    // Tasks of the grid, taken from the reused ones, laid out again when the grid changes
+    private final List<DetectionTask> tasks = new ArrayList<>();
+    private final List<DetectionTask> reusableTasks = new ArrayList<>();
+    private final RecursiveAction detectionAction = new RecursiveAction() {
+        @Override
+        protected void compute() {
+            invokeAll(tasks);
+        }
+    };
+    private final Size tileMaxSize = new Size();
+    private final Size coarseMinSize = new Size();
+    private int tasksWidth = -1;
+    private int tasksHeight = -1;
+    private int tasksTileFace = -1;
+    // Single detection of the whole frame, when it is not worth splitting
+    private DetectionTask untiledTask;
+    // Merging buffers
+    private final FaceRects candidates = new FaceRects();
+    private int[] order = new int[8];
+
+    /**
+     * @param classifiers one classifier per tile plus one for the whole frame, so tasks do
+     *                    not wait for each other
+     */
+    public TiledCascadeFaceDetector(String name, CascadeClassifierPool classifiers,
+                                    ForkJoinPool pool, DetectorParameters parameters) {
+        super(name, parameters);
+        if (classifiers == null || pool == null) {
+            throw new IllegalArgumentException("Classifiers and pool must be instantiated");
+        }
+        this.classifiers = classifiers;
+        this.pool = pool;
+    }
+
+    @Override
+    protected void detect(Mat gray, Size minSize, Size maxSize, FaceRects faces,
+                          double scaleFactor, int minNeighbours) {
+        int tileFace = Math.max(1, Math.round(gray.rows() * TILE_FACE_RATIO));
+        if (maxSize.width > 0 && maxSize.width < tileFace) {
+            tileFace = (int) maxSize.width;
+        }
+        if (tileFace < minSize.width || !prepareTasks(gray.cols(), gray.rows(), tileFace)) {
+            // faces too big for tiles or a single tile, a single detection on this thread
+            detectUntiled(gray, minSize, maxSize, faces, scaleFactor, minNeighbours);
+            return;
+        }
+        tileMaxSize.width = tileFace;
+        tileMaxSize.height = tileFace;
+        coarseMinSize.width = Math.max(minSize.width, tileFace);
+        coarseMinSize.height = Math.max(minSize.height, tileFace);
+        for (int i = 0; i < tasks.size(); i++) {
+            DetectionTask task = tasks.get(i);
+            if (task.isCoarse) {
+                task.set(gray, coarseMinSize, maxSize, scaleFactor, minNeighbours);
+            } else {
+                task.set(gray, minSize, tileMaxSize, scaleFactor, minNeighbours);
+            }
+        }
+        detectionAction.reinitialize();
+        pool.invoke(detectionAction);
+        candidates.clear();
+        for (int i = 0; i < tasks.size(); i++) {
+            FaceRects found = tasks.get(i).faces;
+            for (int j = 0; j < found.size(); j++) {
+                candidates.add(found.getX(j), found.getY(j), found.getWidth(j),
+                        found.getHeight(j));
+            }
+        }
+        suppressOverlaps(candidates, faces);
+    }
+
+    private void detectUntiled(Mat gray, Size minSize, Size maxSize, FaceRects faces,
+                               double scaleFactor, int minNeighbours) {
+        if (untiledTask == null) {
+            untiledTask = new DetectionTask();
+        }
+        untiledTask.setTile(0, 0, gray.cols(), gray.rows(), true);
+        untiledTask.set(gray, minSize, maxSize, scaleFactor, minNeighbours);
+        // runs on the calling thread
+        untiledTask.invoke();
+        faces.copyFrom(untiledTask.faces);
+    }
+
+    /**
+     * Lays out a grid of about as many tiles as pool threads, only across the sides big
+     * enough to hold two faces, plus the whole frame task
+     *
+     * @return false when the grid would be a single tile, then there are no tasks
+     */
+    private boolean prepareTasks(int width, int height, int tileFace) {
+        if (width == tasksWidth && height == tasksHeight && tileFace == tasksTileFace) {
+            return !tasks.isEmpty();
+        }
+        tasks.clear();
+        tasksWidth = width;
+        tasksHeight = height;
+        tasksTileFace = tileFace;
+        int parallelism = pool.getParallelism();
+        int rows = height >= 2 * tileFace && parallelism >= 4 ? 2 : 1;
+        int columns = Math.max(1, Math.min(parallelism / rows, width / tileFace - 1));
+        if (rows == 1 && columns == 1) {
+            return false;
+        }
+        int tileWidth = columns == 1 ? width
+                : Math.min(width, (width + (columns - 1) * tileFace + columns - 1) / columns);
+        int tileHeight = rows == 1 ? height
+                : Math.min(height, (height + (rows - 1) * tileFace + rows - 1) / rows);
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < columns; column++) {
+                int x = columns == 1 ? 0 : column * (width - tileWidth) / (columns - 1);
+                int y = rows == 1 ? 0 : row * (height - tileHeight) / (rows - 1);
+                nextTask().setTile(x, y, tileWidth, tileHeight, false);
+            }
+        }
+        nextTask().setTile(0, 0, width, height, true);
+        return true;
+    }
+
+    /**
+     * @return a reused task added to the tasks of the grid
+     */
+    private DetectionTask nextTask() {
+        int index = tasks.size();
+        if (index == reusableTasks.size()) {
+            reusableTasks.add(new DetectionTask());
+        }
+        DetectionTask task = reusableTasks.get(index);
+        tasks.add(task);
+        return task;
+    }
+
+    /**
+     * Greedy non maximum suppression, the biggest faces first, dropping any face mostly
+     * covered by one already kept
+     */
+    private void suppressOverlaps(FaceRects candidates, FaceRects faces) {
+        int count = candidates.size();
+        if (order.length < count) {
+            order = new int[count];
+        }
+        for (int i = 0; i < count; i++) {
+            int area = candidates.getWidth(i) * candidates.getHeight(i);
+            int j = i;
+            while (j > 0 && area > candidates.getWidth(order[j - 1])
+                    * candidates.getHeight(order[j - 1])) {
+                order[j] = order[j - 1];
+                j--;
+            }
+            order[j] = i;
+        }
+        faces.clear();
+        for (int i = 0; i < count; i++) {
+            int candidate = order[i];
+            boolean isDuplicate = false;
+            for (int kept = 0; kept < faces.size() && !isDuplicate; kept++) {
+                isDuplicate = overlap(candidates, candidate, faces, kept) > MAX_OVERLAP;
+            }
+            if (!isDuplicate) {
+                faces.add(candidates.getX(candidate), candidates.getY(candidate),
+                        candidates.getWidth(candidate), candidates.getHeight(candidate));
+            }
+        }
+    }
+
+    /**
+     * @return part of the first face covered by the second one
+     */
+    private static float overlap(FaceRects first, int i, FaceRects second, int j) {
+        int left = Math.max(first.getX(i), second.getX(j));
+        int top = Math.max(first.getY(i), second.getY(j));
+        int right = Math.min(first.getX(i) + first.getWidth(i),
+                second.getX(j) + second.getWidth(j));
+        int bottom = Math.min(first.getY(i) + first.getHeight(i),
+                second.getY(j) + second.getHeight(j));
+        if (right <= left || bottom <= top) {
+            return 0;
+        }
+        return (float) (right - left) * (bottom - top)
+                / (first.getWidth(i) * first.getHeight(i));
+    }
+
+    @Override
+    public void release() {
+        releaseTasks();
+    }
+
+    private void releaseTasks() {
+        for (int i = 0; i < reusableTasks.size(); i++) {
+            reusableTasks.get(i).facesDetected.release();
+        }
+        reusableTasks.clear();
+        tasks.clear();
+        tasksWidth = -1;
+        if (untiledTask != null) {
+            untiledTask.facesDetected.release();
+            untiledTask = null;
+        }
+    }
+
+    /**
+     * <p>Detects the faces of one tile with a borrowed classifier, in frame coordinates.
+     * Tasks are reused across frames</p>
+     */
+    private class DetectionTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Rect tile = new Rect();
+        private boolean isCoarse;
+        // reused across detections
+        private final MatOfRect facesDetected = new MatOfRect();
+        private final FaceRects faces = new FaceRects();
+        // Detection of the frame being processed
+        private Mat gray;
+        private Size minSize;
+        private Size maxSize;
+        private double scaleFactor;
+        private int minNeighbours;
+
+        /**
+         * @param isCoarse true for the whole frame task, searching faces bigger than a tile
+         */
+        void setTile(int x, int y, int width, int height, boolean isCoarse) {
+            tile.x = x;
+            tile.y = y;
+            tile.width = width;
+            tile.height = height;
+            this.isCoarse = isCoarse;
+        }
+
+        void set(Mat gray, Size minSize, Size maxSize, double scaleFactor, int minNeighbours) {
+            reinitialize();
+            this.gray = gray;
+            this.minSize = minSize;
+            this.maxSize = maxSize;
+            this.scaleFactor = scaleFactor;
+            this.minNeighbours = minNeighbours;
+        }
+
+        @Override
+        protected void compute() {
+            faces.clear();
+            CascadeClassifier classifier = classifiers.acquire();
+            Mat tileGray = gray.submat(tile);
+            try {
+                classifier.detectMultiScale(tileGray, facesDetected, scaleFactor, minNeighbours,
+                        Objdetect.CASCADE_SCALE_IMAGE, minSize, maxSize);
+            } finally {
+                tileGray.release();
+                classifiers.release(classifier);
+            }
+            int count = (int) facesDetected.total();
+            if (count == 0) {
+                return;
+            }
+            facesDetected.get(0, 0, faces.reserve(count));
+            for (int i = 0; i < count; i++) {
+                faces.set(i, faces.getX(i) + tile.x, faces.getY(i) + tile.y,
+                        faces.getWidth(i), faces.getHeight(i));
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2017 Raul Hernandez Lopez @raulh82vlc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.raulh82vlc.face_detection_sample.opencv.domain.frame;
+
+import com.raulh82vlc.face_detection_sample.model.FaceRects;
+
+/**
+ * <p>Face detection outcome of a whole frame, delivered once per frame.
+ * Each {@link FrameLease} owns one, so it is reused together with the frame buffers</p>
+ *
+ * @author Raul Hernandez Lopez.
+ */
+public class FaceDetectionResult {
+    private final FrameLease frame;
+    private final FaceRects faces = new FaceRects();
+    // Track id of each face, the same face keeps its id across frames
+    private int[] trackIds = new int[8];
+    private long detectionDurationNanos;
+
+    FaceDetectionResult(FrameLease frame) {
+        this.frame = frame;
+    }
+
+    void clear() {
+        faces.clear();
+        detectionDurationNanos = 0;
+    }
+
+    public FrameLease getFrame() {
+        return frame;
+    }
+
+    public FaceRects getFaces() {
+        return faces;
+    }
+
+    public int getTrackId(int face) {
+        return trackIds[face];
+    }
+
+    public void setTrackId(int face, int trackId) {
+        if (face >= trackIds.length) {
+            int[] grown = new int[Math.max(face + 1, trackIds.length * 2)];
+            System.arraycopy(trackIds, 0, grown, 0, trackIds.length);
+            trackIds = grown;
+        }
+        trackIds[face] = trackId;
+    }
+
+    /**
+     * @return {@link System#nanoTime()} when the frame was copied from the camera
+     */
+    public long getTimestampNanos() {
+        return frame.getTimestampNanos();
+    }
+
+    public long getDetectionDurationNanos() {
+        return detectionDurationNanos;
+    }
+
+    public void setDetectionDurationNanos(long detectionDurationNanos) {
+        this.detectionDurationNanos = detectionDurationNanos;
+    }
+}
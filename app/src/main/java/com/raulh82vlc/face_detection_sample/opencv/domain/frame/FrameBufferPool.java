@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2017 Raul Hernandez Lopez @raulh82vlc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.raulh82vlc.face_detection_sample.opencv.domain.frame;
+
+import android.support.annotation.Nullable;
+
+import org.opencv.core.Mat;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * <p>Fixed size pool of {@link FrameLease} buffers shared by the detection interactors.
+ * Buffers are allocated the first time they are filled and reused afterwards, so there
+ * is no native allocation per frame</p>
+ *
+ * @author Raul Hernandez Lopez.
+ */
+public class FrameBufferPool {
+    private final BlockingQueue<FrameLease> freeLeases;
+    private long sequence = 0;
+    private boolean isReleased = false;
+
+    public FrameBufferPool(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Pool capacity must be positive");
+        }
+        freeLeases = new ArrayBlockingQueue<>(capacity);
+        for (int i = 0; i < capacity; i++) {
+            freeLeases.offer(new FrameLease(this));
+        }
+    }
+
+    /**
+     * Copies the camera gray frame into a free buffer, to be called from the camera thread
+     *
+     * @return lease holding one reference, or null when every buffer is still in use
+     */
+    @Nullable
+    public FrameLease obtain(Mat cameraGray) {
+        FrameLease lease = freeLeases.poll();
+        if (lease != null) {
+            lease.reset(cameraGray, sequence++, System.nanoTime());
+        }
+        return lease;
+    }
+
+    /**
+     * @return buffers waiting to be filled, all of them once every frame has been released
+     */
+    public int getFreeCount() {
+        return freeLeases.size();
+    }
+
+    synchronized void recycle(FrameLease lease) {
+        if (isReleased) {
+            lease.releaseBuffers();
+        } else {
+            freeLeases.offer(lease);
+        }
+    }
+
+    /**
+     * Frees the native buffers, leases still in use are freed once they are released
+     */
+    public synchronized void release() {
+        isReleased = true;
+        FrameLease lease;
+        while ((lease = freeLeases.poll()) != null) {
+            lease.releaseBuffers();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2017 Raul Hernandez Lopez @raulh82vlc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.raulh82vlc.face_detection_sample.opencv.domain.frame;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>Reference counted camera frame handed out by a {@link FrameBufferPool}.
+ * The gray matrix is a private copy of the camera frame, so background detection never
+ * reads a buffer the camera is overwriting. There is no RGBA matrix, what is found is drawn
+ * by the camera thread on the frame it delivers. Every holder calls {@link #retain()} before passing it on
+ * and {@link #release()} when done, the last release gives the buffers back to the pool</p>
+ *
+ * @author Raul Hernandez Lopez.
+ */
+public class FrameLease {
+    private final FrameBufferPool pool;
+    private final AtomicInteger references = new AtomicInteger(0);
+    // Image Matrices
+    private final Mat gray = new Mat();
+    // Downscaled gray levels shared by the detection stages
+    private final FramePyramid pyramid = new FramePyramid(gray);
+    // Faces detected on this frame
+    private final FaceDetectionResult result = new FaceDetectionResult(this);
+    // Frame info
+    private final Rect changedRegion = new Rect();
+    private long sequence;
+    private long timestampNanos;
+
+    FrameLease(FrameBufferPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Copies the camera gray frame into the pooled buffer, no allocation once the size is known
+     */
+    void reset(Mat cameraGray, long sequence, long timestampNanos) {
+        cameraGray.copyTo(gray);
+        pyramid.reset();
+        result.clear();
+        changedRegion.x = 0;
+        changedRegion.y = 0;
+        changedRegion.width = gray.cols();
+        changedRegion.height = gray.rows();
+        this.sequence = sequence;
+        this.timestampNanos = timestampNanos;
+        references.set(1);
+    }
+
+    public Mat gray() {
+        return gray;
+    }
+
+    public FramePyramid pyramid() {
+        return pyramid;
+    }
+
+    public FaceDetectionResult getResult() {
+        return result;
+    }
+
+    /**
+     * Part of the frame that changed since the last frame detected, the whole frame by
+     * default, to be narrowed by the camera thread before handing the frame over
+     */
+    public Rect getChangedRegion() {
+        return changedRegion;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @return {@link System#nanoTime()} when the frame was copied from the camera
+     */
+    public long getTimestampNanos() {
+        return timestampNanos;
+    }
+
+    public FrameLease retain() {
+        if (references.getAndIncrement() <= 0) {
+            throw new IllegalStateException("Frame " + sequence + " was already released");
+        }
+        return this;
+    }
+
+    public void release() {
+        int left = references.decrementAndGet();
+        if (left == 0) {
+            pool.recycle(this);
+        } else if (left < 0) {
+            throw new IllegalStateException("Frame " + sequence + " released too many times");
+        }
+    }
+
+    void releaseBuffers() {
+        pyramid.release();
+        gray.release();
+    }
+}
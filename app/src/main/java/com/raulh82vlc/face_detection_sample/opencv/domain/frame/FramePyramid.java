@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2017 Raul Hernandez Lopez @raulh82vlc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.raulh82vlc.face_detection_sample.opencv.domain.frame;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>Downscaled gray levels of a {@link FrameLease}, built once per frame the first time
+ * a stage asks for them and shared by every stage afterwards. Octaves are halved with
+ * {@code pyrDown} and any other scale is resized from the closest finer octave.
+ * Level buffers belong to the lease, they are reused by the following frames and freed
+ * with its buffers, so a level is only valid while the frame is retained</p>
+ *
+ * @author Raul Hernandez Lopez.
+ */
+public class FramePyramid {
+    // scales closer than this are the same level
+    private static final float SCALE_EPSILON = 1e-3f;
+
+    private final Mat base;
+    // Octave i is the base halved i + 1 times, the first builtOctaves are valid
+    private final List<Mat> octaves = new ArrayList<>();
+    private int builtOctaves = 0;
+    // Levels between octaves, the first builtLevels are valid
+    private final List<Mat> levels = new ArrayList<>();
+    private float[] levelScales = new float[4];
+    private int builtLevels = 0;
+    private final Size levelSize = new Size();
+
+    FramePyramid(Mat base) {
+        this.base = base;
+    }
+
+    /**
+     * @param scale size of the level relative to the frame, in (0, 1]
+     * @return gray level of the frame, the frame gray itself at scale 1
+     */
+    public synchronized Mat level(float scale) {
+        if (scale <= 0 || scale > 1) {
+            throw new IllegalArgumentException("Scale must be in (0, 1]");
+        }
+        if (scale > 1 - SCALE_EPSILON || base.empty()) {
+            return base;
+        }
+        // finest octave still at least as big as the level
+        int octave = 0;
+        float octaveScale = 1f;
+        while (octaveScale / 2 >= scale - SCALE_EPSILON) {
+            octave++;
+            octaveScale /= 2;
+        }
+        Mat source = octave(octave);
+        if (octaveScale - scale < SCALE_EPSILON) {
+            return source;
+        }
+        for (int i = 0; i < builtLevels; i++) {
+            if (Math.abs(levelScales[i] - scale) < SCALE_EPSILON) {
+                return levels.get(i);
+            }
+        }
+        if (levels.size() == builtLevels) {
+            levels.add(new Mat());
+        }
+        if (levelScales.length == builtLevels) {
+            float[] grown = new float[builtLevels * 2];
+            System.arraycopy(levelScales, 0, grown, 0, builtLevels);
+            levelScales = grown;
+        }
+        Mat level = levels.get(builtLevels);
+        levelSize.width = Math.round(base.cols() * scale);
+        levelSize.height = Math.round(base.rows() * scale);
+        Imgproc.resize(source, level, levelSize, 0, 0, Imgproc.INTER_AREA);
+        levelScales[builtLevels++] = scale;
+        return level;
+    }
+
+    /**
+     * @param octave 0 for the base, each one halves the previous one
+     */
+    private Mat octave(int octave) {
+        if (octave == 0) {
+            return base;
+        }
+        while (builtOctaves < octave) {
+            if (octaves.size() == builtOctaves) {
+                octaves.add(new Mat());
+            }
+            Mat finer = builtOctaves == 0 ? base : octaves.get(builtOctaves - 1);
+            Imgproc.pyrDown(finer, octaves.get(builtOctaves));
+            builtOctaves++;
+        }
+        return octaves.get(octave - 1);
+    }
+
+    /**
+     * Levels of the previous frame are no longer valid, their buffers are kept
+     */
+    synchronized void reset() {
+        builtOctaves = 0;
+        builtLevels = 0;
+    }
+
+    synchronized void release() {
+        reset();
+        for (int i = 0; i < octaves.size(); i++) {
+            octaves.get(i).release();
+        }
+        octaves.clear();
+        for (int i = 0; i < levels.size(); i++) {
+            levels.get(i).release();
+        }
+        levels.clear();
+    }
+}
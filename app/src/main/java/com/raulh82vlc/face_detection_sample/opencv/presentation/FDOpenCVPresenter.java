@@ -20,26 +20,34 @@ import android.content.Context;
 import android.util.Log;
 import android.view.SurfaceView;
 
+import com.raulh82vlc.ar_face_detection_sample.BuildConfig;
 import com.raulh82vlc.ar_face_detection_sample.R;
-import com.raulh82vlc.face_detection_sample.domain.InteractorExecutor;
-import com.raulh82vlc.face_detection_sample.domain.InteractorSingleThreadExecutor;
+import com.raulh82vlc.face_detection_sample.domain.InteractorFrameDroppingExecutor;
 import com.raulh82vlc.face_detection_sample.domain.MainThread;
-import com.raulh82vlc.face_detection_sample.model.Face;
+import com.raulh82vlc.face_detection_sample.model.FaceRects;
+import com.raulh82vlc.face_detection_sample.opencv.domain.CascadeClassifierPool;
+import com.raulh82vlc.face_detection_sample.opencv.domain.DetectorsWarmUpInteractor;
+import com.raulh82vlc.face_detection_sample.opencv.domain.DetectorsWarmUpInteractorImpl;
 import com.raulh82vlc.face_detection_sample.opencv.domain.EyesDetectionInteractor;
+import com.raulh82vlc.face_detection_sample.opencv.domain.EyeWorkGovernor;
 import com.raulh82vlc.face_detection_sample.opencv.domain.EyesDetectionInteractorImpl;
 import com.raulh82vlc.face_detection_sample.opencv.domain.FDInteractor;
 import com.raulh82vlc.face_detection_sample.opencv.domain.FDInteractorImpl;
-import com.raulh82vlc.face_detection_sample.opencv.domain.FileHelper;
+import com.raulh82vlc.face_detection_sample.opencv.domain.LKFaceTracker;
+import com.raulh82vlc.face_detection_sample.opencv.domain.LatencyBudgetController;
+import com.raulh82vlc.face_detection_sample.opencv.domain.MotionGate;
+import com.raulh82vlc.face_detection_sample.opencv.domain.detector.FaceDetector;
+import com.raulh82vlc.face_detection_sample.opencv.domain.detector.FaceDetectorBackend;
+import com.raulh82vlc.face_detection_sample.opencv.domain.frame.FaceDetectionResult;
+import com.raulh82vlc.face_detection_sample.opencv.domain.frame.FrameBufferPool;
+import com.raulh82vlc.face_detection_sample.opencv.domain.frame.FrameLease;
+import com.raulh82vlc.face_detection_sample.opencv.render.EyesOverlay;
 
 import org.opencv.android.BaseLoaderCallback;
 import org.opencv.android.CameraBridgeViewBase;
 import org.opencv.android.LoaderCallbackInterface;
 import org.opencv.core.Mat;
-import org.opencv.core.Rect;
-import org.opencv.objdetect.CascadeClassifier;
-
-import java.io.File;
-import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Face Detection OpenCV Presenter decouples OpenCV logic from activity
@@ -55,115 +63,230 @@ public class FDOpenCVPresenter implements
     private static final int CAMERA_ID_FRONT = 1;
     public static final int MAX_WIDTH = 640;
     public static final int MAX_HEIGHT = 480;
+    // frames in face detection, eyes detection and one being copied from the camera
+    private static final int FRAME_POOL_SIZE = 3;
+    // frames tracked with optical flow before searching the whole frame again
+    private static final int FULL_DETECTION_INTERVAL = 10;
+    // Latency budget of the face detection of a frame, for 30 fps
+    private static final long DETECTION_BUDGET_NANOS = 33000000L;
+    // bounds from the most accurate detection to the fastest one, half to a quarter of
+    // the camera resolution, scale factor and smallest face relative to the frame height
+    private static final float MAX_DETECTION_SCALE = 0.5f;
+    private static final float MIN_DETECTION_SCALE = 0.25f;
+    private static final double MIN_SCALE_FACTOR = 1.1;
+    private static final double MAX_SCALE_FACTOR = 1.3;
+    private static final float MIN_RELATIVE_FACE_SIZE = 0.2f;
+    private static final float MAX_RELATIVE_FACE_SIZE = 0.3f;
+    // eyes of a frame are shed once this late since capture, 30 fps with some slack
+    private static final long EYES_DEADLINE_NANOS = 50000000L;
+    // static frames in a row skipped before detecting one anyway
+    private static final int MAX_STATIC_FRAMES = 60;
 
     // Presentation
     private View view;
     // UIThread
     private final MainThread mainHandler;
-    // Thread pool
-    private final InteractorExecutor interactorExecutor;
-    // Domain
-    private FDInteractor fdInteractor;
+    // Background thread, drops frames while detection is busy
+    private final InteractorFrameDroppingExecutor interactorExecutor;
+    // Eyes of every face are searched in parallel, one worker per core
+    private final ForkJoinPool eyesPool;
+    // Domain, the face interactor is also read by the camera thread
+    private volatile FDInteractor fdInteractor;
     private EyesDetectionInteractor eyesDetectionInteractor;
-    // Camera Lifecycle
-    private boolean isStopped = false;
-    private boolean isBlocked = false;
+    private EyeWorkGovernor eyeWorkGovernor;
+    // Camera Lifecycle, written on the UI thread and read by the camera thread
+    private volatile boolean isStopped = false;
     // OpenCV
-    // Camera Matrices
-    private Mat matrixRgba;
-    private Mat matrixGray;
+    // Camera frames shared with the detection interactors
+    private volatile FrameBufferPool framePool;
+    // Frames with no motion are not detected
+    private volatile MotionGate motionGate;
+    // What was last found, only drawn by the camera thread on the frame it delivers
+    private final FaceRects lastFaces = new FaceRects();
+    private final EyesOverlay eyesOverlay = new EyesOverlay();
     // Classifiers
-    private CascadeClassifier detectorEye;
-    private CascadeClassifier detectorFace;
-    private boolean isMachineLearningInitialised = false;
+    private CascadeClassifierPool detectorsEye;
+    private FaceDetector detectorFace;
+    private volatile boolean isMachineLearningInitialised = false;
+    // classifiers being loaded in the background, the camera starts once they are ready
+    private boolean isWarmingUp = false;
 
     public FDOpenCVPresenter(MainThread handler, View view) {
         mainHandler = handler;
         this.view = view;
-        interactorExecutor = new InteractorSingleThreadExecutor();
+        interactorExecutor = new InteractorFrameDroppingExecutor();
+        eyesPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
     }
 
-    public void detectEyes(Rect faceOpenCV) {
+    public void detectEyes(FaceDetectionResult result) {
         if (!isStopped && eyesDetectionInteractor != null) {
-            eyesDetectionInteractor.execute(matrixGray, matrixRgba, faceOpenCV, this);
+            eyesDetectionInteractor.execute(result, this);
+        } else {
+            result.getFrame().release();
         }
     }
 
     public interface View {
-        void drawFace(Rect faceOpenCV, Mat face);
+        /**
+         * Called by the camera thread on every frame delivered while there are faces
+         */
+        void drawFaces(FaceRects faces, Mat rgbaMat);
 
-        void startEyesDetection(Rect faceOpenCV);
+        /**
+         * Takes over the reference of the result frame
+         */
+        void startEyesDetection(FaceDetectionResult result);
     }
 
     private void setMachineLearningMechanism() {
         if (!isMachineLearningInitialised) {
-            fdInteractor = new FDInteractorImpl(detectorFace, mainHandler, interactorExecutor);
-            eyesDetectionInteractor = new EyesDetectionInteractorImpl(detectorEye, mainHandler, interactorExecutor);
+            FDInteractorImpl faceInteractor = new FDInteractorImpl(detectorFace, mainHandler,
+                    interactorExecutor);
+            faceInteractor.setTrackingMode(true, FULL_DETECTION_INTERVAL);
+            faceInteractor.setFaceTracker(new LKFaceTracker());
+            LatencyBudgetController budgetController = new LatencyBudgetController(
+                    DETECTION_BUDGET_NANOS, MAX_DETECTION_SCALE, MIN_DETECTION_SCALE,
+                    MIN_SCALE_FACTOR, MAX_SCALE_FACTOR,
+                    MIN_RELATIVE_FACE_SIZE, MAX_RELATIVE_FACE_SIZE);
+            budgetController.setListener(new LatencyBudgetController.Listener() {
+                @Override
+                public void onLevelAdjusted(int previousLevel, int level, long averageNanos,
+                                            float detectionScale, double scaleFactor,
+                                            float relativeFaceSize) {
+                    Log.i(TAG, "Detection level " + previousLevel + " -> " + level
+                            + " at " + averageNanos / 1000000 + " ms per frame"
+                            + ", detection scale: " + detectionScale
+                            + ", scale factor: " + scaleFactor
+                            + ", relative face size: " + relativeFaceSize);
+                }
+            });
+            faceInteractor.setLatencyBudgetController(budgetController);
+            fdInteractor = faceInteractor;
+            EyesDetectionInteractorImpl eyesInteractor = new EyesDetectionInteractorImpl(
+                    detectorsEye, eyesPool, mainHandler, interactorExecutor);
+            eyeWorkGovernor = new EyeWorkGovernor(EYES_DEADLINE_NANOS,
+                    eyesPool.getParallelism());
+            eyesInteractor.setWorkGovernor(eyeWorkGovernor);
+            eyesInteractor.setEyesOverlay(eyesOverlay);
+            eyesDetectionInteractor = eyesInteractor;
             isMachineLearningInitialised = true;
         }
     }
 
     @Override
-    public void onFaceDetected(Rect faceOpenCV, Face face) {
-        if (!isStopped && view != null) {
-            view.drawFace(faceOpenCV, matrixRgba);
-            view.startEyesDetection(faceOpenCV);
+    public void onFacesDetected(FaceDetectionResult result) {
+        synchronized (lastFaces) {
+            lastFaces.copyFrom(result.getFaces());
+        }
+        if (result.getFaces().size() == 0) {
+            eyesOverlay.clear();
+        }
+        if (!isStopped && view != null && result.getFaces().size() > 0) {
+            if (BuildConfig.DEBUG) {
+                Log.d(TAG, "Faces detected in " + result.getDetectionDurationNanos() / 1000000
+                        + " ms, " + (System.nanoTime() - result.getTimestampNanos()) / 1000000
+                        + " ms since capture");
+            }
+            view.startEyesDetection(result);
+        } else {
+            result.getFrame().release();
         }
     }
 
     @Override
     public void onEyesDetected(String methodForEyes) {
-        if (!isStopped) {
-            isBlocked = false;
+        if (!isStopped && BuildConfig.DEBUG) {
             Log.d(TAG, "Eyes detected with: " + methodForEyes);
         }
     }
 
     @Override
     public void onCameraViewStarted(int width, int height) {
-        matrixGray = new Mat();
-        matrixRgba = new Mat();
+        if (framePool == null) {
+            framePool = new FrameBufferPool(FRAME_POOL_SIZE);
+        }
+        if (motionGate == null) {
+            motionGate = new MotionGate(MAX_STATIC_FRAMES);
+        } else {
+            // the first frame after a restart is always detected
+            motionGate.reset();
+        }
+        FDInteractor faceInteractor = fdInteractor;
+        if (faceInteractor != null) {
+            // faces of the previous session are not followed into this one
+            faceInteractor.reset();
+        }
+        synchronized (lastFaces) {
+            lastFaces.clear();
+        }
+        eyesOverlay.clear();
         isStopped = false;
-        eyesDetectionInteractor.setRunningStatus(true);
+        if (eyesDetectionInteractor != null) {
+            eyesDetectionInteractor.setRunningStatus(true);
+        }
     }
 
     @Override
     public void onCameraViewStopped() {
         isStopped = true;
-        eyesDetectionInteractor.setRunningStatus(false);
-        matrixRgba.release();
-        matrixGray.release();
+        if (eyesDetectionInteractor != null) {
+            eyesDetectionInteractor.setRunningStatus(false);
+        }
+        Log.i(TAG, "Detection runs submitted: " + interactorExecutor.getSubmittedCount()
+                + ", dropped: " + interactorExecutor.getDroppedCount()
+                + ", completed: " + interactorExecutor.getCompletedCount());
+        if (eyeWorkGovernor != null) {
+            Log.i(TAG, "Eyes work, " + eyeWorkGovernor);
+        }
+        if (eyesDetectionInteractor != null) {
+            Log.i(TAG, "Eyes detection, " + eyesDetectionInteractor);
+        }
+        if (motionGate != null) {
+            Log.i(TAG, "Static frames skipped: " + motionGate.getFramesSkipped()
+                    + " of " + motionGate.getFramesChecked());
+        }
+        if (detectorFace != null) {
+            Log.i(TAG, "Face detector " + detectorFace);
+        }
     }
 
     @Override
     public Mat onCameraFrame(CameraBridgeViewBase.CvCameraViewFrame inputFrame) {
+        // the frame returned is the preview drawn on screen, so it is always rgba
         Mat rgba = inputFrame.rgba();
-        Mat gray = inputFrame.gray();
-        setMatrices(rgba, gray);
-        if (isMachineLearningInitialised && !isStopped) {
-            fdInteractor.execute(matrixGray, this);
+        FrameBufferPool pool = framePool;
+        MotionGate gate = motionGate;
+        FDInteractor faceInteractor = fdInteractor;
+        if (isMachineLearningInitialised && !isStopped && pool != null && gate != null
+                && faceInteractor != null) {
+            Mat gray = inputFrame.gray();
+            // null while every pooled frame is still being detected, so this one is skipped
+            FrameLease frame = gate.hasMotion(gray) ? pool.obtain(gray) : null;
+            if (frame != null) {
+                gate.accept();
+                gate.getChangedRegion(frame.getChangedRegion());
+                faceInteractor.execute(frame, this);
+            }
         }
-        return matrixRgba;
+        drawLastFound(rgba);
+        return rgba;
     }
 
-    private synchronized void setMatrices(Mat rgba, Mat gray) {
-        if (!isBlocked) {
-            matrixRgba = rgba;
-            matrixGray = gray;
-            isBlocked = true;
+    /**
+     * Draws the faces and eyes last found on the frame being delivered, on the camera thread,
+     * so no other thread draws on a camera frame while the next one is converted into it
+     */
+    private void drawLastFound(Mat rgba) {
+        View currentView = view;
+        if (currentView == null) {
+            return;
         }
-    }
-
-    private synchronized CascadeClassifier initializeJavaDetector(File cascadeFile) {
-        CascadeClassifier detector = new CascadeClassifier(cascadeFile.getAbsolutePath());
-        detector.load(cascadeFile.getAbsolutePath());
-        if (detector.empty()) {
-            Log.e(TAG, "Failed to load cascade classifier");
-            detector = null;
-        } else {
-            Log.i(TAG, "Loaded cascade classifier from " + cascadeFile.getAbsolutePath());
+        synchronized (lastFaces) {
+            if (lastFaces.size() > 0) {
+                currentView.drawFaces(lastFaces, rgba);
+            }
         }
-        return detector;
+        eyesOverlay.draw(rgba);
     }
 
     public BaseLoaderCallback getLoader(final Context context, final CameraBridgeViewBase openCvCameraView) {
@@ -173,27 +296,11 @@ public class FDOpenCVPresenter implements
                 switch (status) {
                     case LoaderCallbackInterface.SUCCESS:
                         Log.i(TAG, "OpenCV loaded successfully");
-                        try {
-                            /** load face classificator */
-                            File cascadeFileFace = FileHelper.readCascadeFile(context,
-                                    R.raw.haarcascade_frontalface_alt2,
-                                    "cascade", "haarcascade_front.xml");
-                            detectorFace = initializeJavaDetector(cascadeFileFace);
-                            cascadeFileFace.delete();
-                            /** load eye classificator */
-                            File cascadeFileEye = FileHelper.readCascadeFile(context,
-                                    R.raw.haarcascade_eye_tree_eyeglasses,
-                                    "cascadeER", "haarcascade_eye.xml");
-                            detectorEye = initializeJavaDetector(cascadeFileEye);
-                            cascadeFileEye.delete();
-                            setMachineLearningMechanism();
-                        } catch (IOException e) {
-                            e.printStackTrace();
-                            Log.e(TAG, "Failed to load cascade. Exception thrown: " + e);
+                        if (isMachineLearningInitialised) {
+                            setCameraParameters(openCvCameraView);
+                        } else if (!isWarmingUp) {
+                            warmUpDetectors(context, openCvCameraView);
                         }
-
-                        setCameraParameters(openCvCameraView);
-
                         break;
                     default:
                         super.onManagerConnected(status);
@@ -203,6 +310,45 @@ public class FDOpenCVPresenter implements
         };
     }
 
+    /**
+     * Loads and warms up the detectors off the UI thread, then starts the camera.
+     * The face detector backend is the one of the {@code face_detector_backend} resource
+     */
+    private void warmUpDetectors(Context context, final CameraBridgeViewBase openCvCameraView) {
+        isWarmingUp = true;
+        FaceDetectorBackend faceBackend = FaceDetectorBackend.fromName(
+                context.getString(R.string.face_detector_backend));
+        DetectorsWarmUpInteractor warmUpInteractor = new DetectorsWarmUpInteractorImpl(context,
+                faceBackend, R.raw.haarcascade_eye_tree_eyeglasses,
+                eyesPool, mainHandler, interactorExecutor);
+        warmUpInteractor.execute(new DetectorsWarmUpInteractor.WarmUpCallback() {
+            @Override
+            public void onDetectorsReady(FaceDetector detectorFace,
+                                         CascadeClassifierPool detectorsEye) {
+                isWarmingUp = false;
+                if (view == null) {
+                    // cleaned up while warming up
+                    detectorFace.release();
+                    return;
+                }
+                FDOpenCVPresenter.this.detectorFace = detectorFace;
+                FDOpenCVPresenter.this.detectorsEye = detectorsEye;
+                setMachineLearningMechanism();
+                setCameraParameters(openCvCameraView);
+            }
+
+            @Override
+            public void onDetectorsFailed(Exception exception) {
+                isWarmingUp = false;
+                Log.e(TAG, "Failed to load cascade. Exception thrown: " + exception);
+                if (view != null) {
+                    // camera preview keeps working without detection
+                    setCameraParameters(openCvCameraView);
+                }
+            }
+        });
+    }
+
     private void setCameraParameters(CameraBridgeViewBase openCvCameraView) {
         openCvCameraView.setCameraIndex(CAMERA_ID_FRONT);
         openCvCameraView.enableFpsMeter();
@@ -212,15 +358,32 @@ public class FDOpenCVPresenter implements
     public void setCamera(CameraBridgeViewBase openCvCameraView) {
         openCvCameraView.setVisibility(SurfaceView.VISIBLE);
         openCvCameraView.setMaxFrameSize(MAX_WIDTH, MAX_HEIGHT);
+        // every frame returned is drawn as the colour preview, so the view keeps preparing
+        // both gray and rgba planes, the default
         openCvCameraView.setCvCameraViewListener(this);
     }
 
     public void cleanUp() {
+        FDInteractor faceInteractor = fdInteractor;
         fdInteractor = null;
-        eyesDetectionInteractor = null;
-        matrixRgba = null;
-        matrixGray = null;
-        detectorEye = null;
+        if (faceInteractor != null) {
+            faceInteractor.release();
+        }
+        if (eyesDetectionInteractor != null) {
+            eyesDetectionInteractor.release();
+            eyesDetectionInteractor = null;
+        }
+        eyeWorkGovernor = null;
+        if (framePool != null) {
+            framePool.release();
+            framePool = null;
+        }
+        if (motionGate != null) {
+            motionGate.release();
+            motionGate = null;
+        }
+        eyesPool.shutdown();
+        detectorsEye = null;
         detectorFace = null;
         view = null;
     }
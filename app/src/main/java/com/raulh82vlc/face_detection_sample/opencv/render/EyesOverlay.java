@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2017 Raul Hernandez Lopez @raulh82vlc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.raulh82vlc.face_detection_sample.opencv.render;
+
+import com.raulh82vlc.face_detection_sample.model.FaceRects;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+
+/**
+ * <p>Eye shapes of the last frame whose eyes were searched, recorded by the eyes interactor
+ * thread and drawn by the camera thread on every frame it delivers, so no other thread
+ * ever draws on a camera frame. Shapes are recorded aside and only published once the
+ * whole frame is done, so a frame never draws half of them</p>
+ *
+ * @author Raul Hernandez Lopez.
+ */
+public class EyesOverlay {
+    // Recorded by the eyes interactor thread
+    private final Shapes recorded = new Shapes();
+    // Drawn by the camera thread, guarded by this
+    private final Shapes published = new Shapes();
+    private final Point topLeft = new Point();
+    private final Point bottomRight = new Point();
+    private final Rect rect = new Rect();
+
+    /**
+     * Starts recording the shapes of a new frame, eyes interactor thread
+     */
+    public void startFrame() {
+        recorded.clear();
+    }
+
+    public void addEyeArea(Rect eyeArea) {
+        recorded.eyeAreas.add(eyeArea.x, eyeArea.y, eyeArea.width, eyeArea.height);
+    }
+
+    /**
+     * @param iris centre of the iris found in the template just learnt
+     */
+    public void addLearntEye(Rect templateArea, Point iris) {
+        recorded.templateAreas.add(templateArea.x, templateArea.y, templateArea.width,
+                templateArea.height);
+        recorded.irises.add((int) iris.x, (int) iris.y, 0, 0);
+    }
+
+    public void addMatchedEye(Point matchTopLeft, Point matchBottomRight) {
+        recorded.matchedEyes.add((int) matchTopLeft.x, (int) matchTopLeft.y,
+                (int) (matchBottomRight.x - matchTopLeft.x),
+                (int) (matchBottomRight.y - matchTopLeft.y));
+    }
+
+    /**
+     * Shapes recorded since {@link #startFrame()} replace the ones drawn
+     */
+    public synchronized void publish() {
+        published.copyFrom(recorded);
+    }
+
+    /**
+     * No eyes drawn until the next frame is published, e.g. once faces are gone
+     */
+    public synchronized void clear() {
+        published.clear();
+    }
+
+    /**
+     * Draws the published shapes, camera thread
+     */
+    public synchronized void draw(Mat matrixRgba) {
+        for (int i = 0; i < published.eyeAreas.size(); i++) {
+            FaceDrawerOpenCV.drawEyeRectangle(toRect(published.eyeAreas, i), matrixRgba);
+        }
+        for (int i = 0; i < published.templateAreas.size(); i++) {
+            topLeft.x = published.irises.getX(i);
+            topLeft.y = published.irises.getY(i);
+            FaceDrawerOpenCV.drawIrisCircle(matrixRgba, topLeft);
+            FaceDrawerOpenCV.drawEyeRectangle(toRect(published.templateAreas, i), matrixRgba);
+        }
+        FaceRects matchedEyes = published.matchedEyes;
+        for (int i = 0; i < matchedEyes.size(); i++) {
+            topLeft.x = matchedEyes.getX(i);
+            topLeft.y = matchedEyes.getY(i);
+            bottomRight.x = topLeft.x + matchedEyes.getWidth(i);
+            bottomRight.y = topLeft.y + matchedEyes.getHeight(i);
+            FaceDrawerOpenCV.drawMatchedEye(topLeft, bottomRight, matrixRgba);
+        }
+    }
+
+    private Rect toRect(FaceRects rects, int index) {
+        rect.x = rects.getX(index);
+        rect.y = rects.getY(index);
+        rect.width = rects.getWidth(index);
+        rect.height = rects.getHeight(index);
+        return rect;
+    }
+
+    private static final class Shapes {
+        private final FaceRects eyeAreas = new FaceRects();
+        private final FaceRects templateAreas = new FaceRects();
+        // iris centres, one per template area, with no size
+        private final FaceRects irises = new FaceRects();
+        private final FaceRects matchedEyes = new FaceRects();
+
+        void clear() {
+            eyeAreas.clear();
+            templateAreas.clear();
+            irises.clear();
+            matchedEyes.clear();
+        }
+
+        void copyFrom(Shapes other) {
+            eyeAreas.copyFrom(other.eyeAreas);
+            templateAreas.copyFrom(other.templateAreas);
+            irises.copyFrom(other.irises);
+            matchedEyes.copyFrom(other.matchedEyes);
+        }
+    }
+}
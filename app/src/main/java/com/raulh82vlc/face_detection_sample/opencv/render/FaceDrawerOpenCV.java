@@ -16,6 +16,8 @@
 
 package com.raulh82vlc.face_detection_sample.opencv.render;
 
+import com.raulh82vlc.face_detection_sample.model.FaceRects;
+
 import org.opencv.core.Core;
 import org.opencv.core.Mat;
 import org.opencv.core.Point;
@@ -46,6 +48,11 @@ public final class FaceDrawerOpenCV {
         Imgproc.circle(matrixRGBA, center, 10, new Scalar(255, 0, 0, 255), 3);
     }
 
+    public static void drawFaceShapes(FaceRects faces, int index, Mat matrixRGBA) {
+        drawFaceShapes(new Rect(faces.getX(index), faces.getY(index),
+                faces.getWidth(index), faces.getHeight(index)), matrixRGBA);
+    }
+
     public static void drawEyesRectangles(Rect rightEyeArea, Rect leftEyeArea, Mat matrixRgba) {
         drawEyeRectangle(leftEyeArea, matrixRgba);
         drawEyeRectangle(rightEyeArea, matrixRgba);
@@ -57,7 +64,11 @@ public final class FaceDrawerOpenCV {
     }
 
     public static void drawIrisCircle(Mat matrixRgba, Core.MinMaxLocResult minMaxLocResult) {
-        Imgproc.circle(matrixRgba, minMaxLocResult.minLoc, 2, new Scalar(255, 255, 255, 255), 2);
+        drawIrisCircle(matrixRgba, minMaxLocResult.minLoc);
+    }
+
+    public static void drawIrisCircle(Mat matrixRgba, Point iris) {
+        Imgproc.circle(matrixRgba, iris, 2, new Scalar(255, 255, 255, 255), 2);
     }
 
     public static void drawMatchedEye(Point matchLocTx, Point matchLocTy, Mat matrixRgba) {
@@ -29,6 +29,8 @@ import android.widget.Toast;
 
 import com.raulh82vlc.ar_face_detection_sample.R;
 import com.raulh82vlc.face_detection_sample.domain.MainThreadImpl;
+import com.raulh82vlc.face_detection_sample.model.FaceRects;
+import com.raulh82vlc.face_detection_sample.opencv.domain.frame.FaceDetectionResult;
 import com.raulh82vlc.face_detection_sample.opencv.presentation.FDOpenCVPresenter;
 import com.raulh82vlc.face_detection_sample.opencv.render.FaceDrawerOpenCV;
 
@@ -36,7 +38,6 @@ import org.opencv.android.CameraBridgeViewBase;
 import org.opencv.android.LoaderCallbackInterface;
 import org.opencv.android.OpenCVLoader;
 import org.opencv.core.Mat;
-import org.opencv.core.Rect;
 
 /**
  * UI detection through through OpenCV library
@@ -130,13 +131,14 @@ public class FDOpenCVActivity extends Activity implements FDOpenCVPresenter.View
     }
 
     @Override
-    public void drawFace(Rect faceOpenCV, Mat rgbaMat) {
-        Log.i(TAG, "Face detected and rendered");
-        FaceDrawerOpenCV.drawFaceShapes(faceOpenCV, rgbaMat);
+    public void drawFaces(FaceRects faces, Mat rgbaMat) {
+        for (int i = 0; i < faces.size(); i++) {
+            FaceDrawerOpenCV.drawFaceShapes(faces, i, rgbaMat);
+        }
     }
 
     @Override
-    public void startEyesDetection(Rect faceOpenCV) {
-       presenter.detectEyes(faceOpenCV);
+    public void startEyesDetection(FaceDetectionResult result) {
+       presenter.detectEyes(result);
     }
 }
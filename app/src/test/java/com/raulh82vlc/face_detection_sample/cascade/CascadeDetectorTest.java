@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2017 Raul Hernandez Lopez @raulh82vlc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.raulh82vlc.face_detection_sample.cascade;
+
+import com.raulh82vlc.face_detection_sample.model.FaceRects;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * <p>Checks detections of a one feature cascade on a synthetic edge and of the bundled face
+ * cascade on the first bundled replay frame</p>
+ *
+ * @author Raul Hernandez Lopez.
+ */
+public class CascadeDetectorTest {
+    // Paths relative to the app module, where unit tests run
+    private static final String FACE_CASCADE_BIN =
+            "src/main/assets/cascades/haarcascade_frontalface_alt2.bin";
+    private static final String BUNDLED_FRAMES = "/replay/faces_160x120.gray";
+    private static final int FRAME_WIDTH = 160;
+    private static final int FRAME_HEIGHT = 120;
+    private static final int EDGE_WINDOW = 20;
+
+    private final ForkJoinPool pool = new ForkJoinPool(4);
+    private final FaceRects objects = new FaceRects();
+
+    @After
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Test
+    public void findsEdgeWhereTheCascadeExpectsIt() {
+        // bright block filling the left half of the window at (12, 16), windows shifted
+        // around it still pass and are grouped back on it
+        byte[] pixels = new byte[60 * 60];
+        for (int y = 16; y < 16 + EDGE_WINDOW; y++) {
+            Arrays.fill(pixels, y * 60 + 12, y * 60 + 12 + EDGE_WINDOW / 2, (byte) 255);
+        }
+        CascadeDetector detector = new CascadeDetector(edgeCascade(0), pool);
+
+        detector.detectMultiScale(new GrayImage(pixels, 60, 60), objects, 1.1, 2,
+                EDGE_WINDOW, EDGE_WINDOW);
+
+        assertEquals(1, objects.size());
+        assertEquals(12, objects.getX(0), 2);
+        assertEquals(16, objects.getY(0), 2);
+        assertEquals(EDGE_WINDOW, objects.getWidth(0));
+        assertEquals(EDGE_WINDOW, objects.getHeight(0));
+    }
+
+    @Test
+    public void skipsFlatWindows() {
+        byte[] pixels = new byte[40 * 40];
+        Arrays.fill(pixels, (byte) 128);
+        // the stage accepts every window it evaluates
+        CascadeDetector detector = new CascadeDetector(edgeCascade(-10), pool);
+
+        detector.detectMultiScale(new GrayImage(pixels, 40, 40), objects, 1.1, 0, 0, 0);
+
+        assertEquals(0, objects.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsScaleFactorNotBiggerThanOne() {
+        new CascadeDetector(edgeCascade(0), pool).detectMultiScale(
+                new GrayImage(new byte[64], 8, 8), objects, 1, 3, 0, 0);
+    }
+
+    @Test
+    public void findsTheFaceOfBundledFrame() throws IOException {
+        File cascade = new File(FACE_CASCADE_BIN);
+        assumeTrue("Not run from the app module", cascade.isFile());
+        GrayImage frame = new GrayImage(firstBundledFrame(), FRAME_WIDTH, FRAME_HEIGHT);
+        CascadeDetector detector = new CascadeDetector(HaarCascadeBinary.map(cascade), pool);
+
+        detector.detectMultiScale(frame, objects, 1.1, 3, 24, 0);
+
+        assertEquals(1, objects.size());
+        assertEquals(30, objects.getX(0), 3);
+        assertEquals(19, objects.getY(0), 3);
+        assertEquals(68, objects.getWidth(0), 4);
+
+        // same detections whatever the number of threads running the scale levels
+        FaceRects singleThreadObjects = new FaceRects();
+        ForkJoinPool singleThread = new ForkJoinPool(1);
+        try {
+            new CascadeDetector(detector.getCascade(), singleThread).detectMultiScale(frame,
+                    singleThreadObjects, 1.1, 3, 24, 0);
+        } finally {
+            singleThread.shutdown();
+        }
+        assertEquals(objects.size(), singleThreadObjects.size());
+        assertEquals(objects.getX(0), singleThreadObjects.getX(0));
+        assertEquals(objects.getY(0), singleThreadObjects.getY(0));
+        assertEquals(objects.getWidth(0), singleThreadObjects.getWidth(0));
+    }
+
+    /**
+     * One stage with one stump, passed by windows whose left half is brighter than their
+     * right half
+     */
+    private static HaarCascade edgeCascade(float stageThreshold) {
+        return new HaarCascade(EDGE_WINDOW, EDGE_WINDOW,
+                new float[]{stageThreshold}, new int[]{0, 1},
+                new int[]{0}, new int[]{0},
+                new int[]{0}, new float[]{0.5f}, new int[]{0}, new int[]{-1},
+                new float[]{-1, 1},
+                new int[]{0, 2}, new boolean[]{false},
+                // left half twice minus the whole window is left minus right
+                new int[]{0, 0, EDGE_WINDOW, EDGE_WINDOW, 0, 0, EDGE_WINDOW / 2, EDGE_WINDOW},
+                new float[]{-1, 2});
+    }
+
+    private static byte[] firstBundledFrame() throws IOException {
+        InputStream input = CascadeDetectorTest.class.getResourceAsStream(BUNDLED_FRAMES);
+        assertTrue("Missing bundled frames " + BUNDLED_FRAMES, input != null);
+        DataInputStream frameInput = new DataInputStream(input);
+        try {
+            byte[] pixels = new byte[FRAME_WIDTH * FRAME_HEIGHT];
+            frameInput.readFully(pixels);
+            return pixels;
+        } finally {
+            frameInput.close();
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2017 Raul Hernandez Lopez @raulh82vlc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.raulh82vlc.face_detection_sample.cascade;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * <p>Checks that a cascade written by {@link HaarCascadeBinary} reads back the same as
+ * {@link HaarCascadeXmlParser} parsed it, for a stump cascade and a tree one, and that the
+ * bundled binary face cascade is still the converted XML, read from its mapping</p>
+ *
+ * @author Raul Hernandez Lopez.
+ */
+public class HaarCascadeBinaryTest {
+    // Paths relative to the app module, where unit tests run
+    private static final String FACE_CASCADE_XML =
+            "src/main/res/raw/haarcascade_frontalface_alt2.xml";
+    private static final String EYE_CASCADE_XML =
+            "src/main/res/raw/haarcascade_eye_tree_eyeglasses.xml";
+    private static final String FACE_CASCADE_BIN =
+            "src/main/assets/cascades/haarcascade_frontalface_alt2.bin";
+
+    @Test
+    public void roundTripKeepsStumpCascade() throws IOException {
+        HaarCascade parsed = parse(FACE_CASCADE_XML);
+
+        assertSameCascade(parsed, HaarCascadeBinary.read(ByteBuffer.wrap(write(parsed))));
+    }
+
+    @Test
+    public void roundTripKeepsTreeCascade() throws IOException {
+        HaarCascade parsed = parse(EYE_CASCADE_XML);
+
+        assertSameCascade(parsed, HaarCascadeBinary.read(ByteBuffer.wrap(write(parsed))));
+    }
+
+    @Test
+    public void bundledFaceCascadeIsTheConvertedXml() throws IOException {
+        File binary = new File(FACE_CASCADE_BIN);
+        assumeTrue("Not run from the app module", binary.isFile());
+
+        assertSameCascade(parse(FACE_CASCADE_XML), HaarCascadeBinary.map(binary));
+    }
+
+    @Test
+    public void mappedCascadeIsReadFromTheMapping() throws IOException {
+        File binary = new File(FACE_CASCADE_BIN);
+        assumeTrue("Not run from the app module", binary.isFile());
+
+        HaarCascade mapped = HaarCascadeBinary.map(binary);
+
+        // views of the mapped file, not heap copies
+        assertTrue(mapped.stageThresholds.isDirect());
+        assertTrue(mapped.nodeFeatures.isDirect());
+        assertTrue(mapped.nodeThresholds.isDirect());
+        assertTrue(mapped.featureTilted.isDirect());
+        assertTrue(mapped.rects.isDirect());
+        assertTrue(mapped.rectWeights.isDirect());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsTruncatedCascade() throws IOException {
+        byte[] bytes = write(parse(FACE_CASCADE_XML));
+
+        HaarCascadeBinary.read(ByteBuffer.wrap(Arrays.copyOf(bytes, bytes.length / 2)));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherFiles() throws IOException {
+        HaarCascadeBinary.read(ByteBuffer.wrap("<?xml version=\"1.0\"?>".getBytes("UTF-8")));
+    }
+
+    private static HaarCascade parse(String path) throws IOException {
+        File xml = new File(path);
+        assumeTrue("Not run from the app module", xml.isFile());
+        return HaarCascadeXmlParser.parse(xml);
+    }
+
+    private static byte[] write(HaarCascade cascade) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        HaarCascadeBinary.write(cascade, output);
+        return output.toByteArray();
+    }
+
+    private static void assertSameCascade(HaarCascade expected, HaarCascade actual) {
+        assertEquals(expected.windowWidth, actual.windowWidth);
+        assertEquals(expected.windowHeight, actual.windowHeight);
+        assertEquals(expected.stageThresholds, actual.stageThresholds);
+        assertEquals(expected.stageClassifierStart, actual.stageClassifierStart);
+        assertEquals(expected.classifierNodeStart, actual.classifierNodeStart);
+        assertEquals(expected.classifierLeafStart, actual.classifierLeafStart);
+        assertEquals(expected.nodeFeatures, actual.nodeFeatures);
+        assertEquals(expected.nodeThresholds, actual.nodeThresholds);
+        assertEquals(expected.nodeLeft, actual.nodeLeft);
+        assertEquals(expected.nodeRight, actual.nodeRight);
+        assertEquals(expected.leafValues, actual.leafValues);
+        assertEquals(expected.featureRectStart, actual.featureRectStart);
+        assertEquals(expected.featureTilted, actual.featureTilted);
+        assertEquals(expected.rects, actual.rects);
+        assertEquals(expected.rectWeights, actual.rectWeights);
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2017 Raul Hernandez Lopez @raulh82vlc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.raulh82vlc.face_detection_sample.cascade;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * <p>Checks the integral images against their definitions computed pixel by pixel, also
+ * over a region of a bigger image and with buffers reused for a smaller image</p>
+ *
+ * @author Raul Hernandez Lopez.
+ */
+public class IntegralImageTest {
+
+    @Test
+    public void sumsOfSmallImageAreKnown() {
+        byte[] pixels = {
+                1, 2, 3,
+                4, 5, 6
+        };
+        IntegralImage integral = new IntegralImage();
+        integral.compute(new GrayImage(pixels, 3, 2), true);
+
+        assertEquals(4, integral.getStride());
+        assertEquals(21, integral.sum(0, 0, 3, 2));
+        assertEquals(16, integral.sum(1, 0, 2, 2));
+        assertEquals(5, integral.sum(1, 1, 1, 1));
+        // zero leading row and column
+        assertEquals(0, integral.sum()[0]);
+        assertEquals(0, integral.sum()[4]);
+        assertEquals(1 + 4 + 9 + 16 + 25 + 36, integral.squaredSum()[2 * 4 + 3]);
+        // tilted(2, 1) holds the pixels (0, 0), (1, 0) and (0, 1)
+        assertEquals(1 + 2 + 4, integral.tilted()[2 * 4 + 1]);
+    }
+
+    @Test
+    public void sumsMatchBruteForce() {
+        Random random = new Random(42);
+        int width = 23;
+        int height = 17;
+        byte[] pixels = new byte[width * height];
+        random.nextBytes(pixels);
+        GrayImage image = new GrayImage(pixels, width, height);
+        IntegralImage integral = new IntegralImage();
+        integral.compute(image, true);
+
+        assertSums(image, integral);
+    }
+
+    @Test
+    public void sumsOfRegionMatchBruteForce() {
+        Random random = new Random(7);
+        int stride = 31;
+        byte[] pixels = new byte[stride * 20];
+        random.nextBytes(pixels);
+        GrayImage region = new GrayImage();
+        region.set(pixels, 2 * stride + 5, stride, 19, 14);
+        IntegralImage integral = new IntegralImage();
+        // bigger image first, so the buffers are reused for the region
+        integral.compute(new GrayImage(pixels, stride, 20), true);
+        integral.compute(region, true);
+
+        assertSums(region, integral);
+    }
+
+    private static void assertSums(GrayImage image, IntegralImage integral) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                for (int h = 1; y + h <= height; h += 3) {
+                    for (int w = 1; x + w <= width; w += 2) {
+                        assertEquals(bruteForceSum(image, x, y, w, h),
+                                integral.sum(x, y, w, h));
+                    }
+                }
+            }
+        }
+        int stride = integral.getStride();
+        for (int y = 0; y <= height; y++) {
+            for (int x = 0; x <= width; x++) {
+                assertEquals("Tilted " + x + "," + y, bruteForceTilted(image, x, y),
+                        integral.tilted()[y * stride + x]);
+            }
+        }
+    }
+
+    private static int bruteForceSum(GrayImage image, int x, int y, int w, int h) {
+        int sum = 0;
+        for (int row = y; row < y + h; row++) {
+            for (int column = x; column < x + w; column++) {
+                sum += image.get(column, row);
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * tilted(Y, X) as documented by {@link IntegralImage}
+     */
+    private static int bruteForceTilted(GrayImage image, int x, int y) {
+        int sum = 0;
+        for (int row = 0; row < y; row++) {
+            for (int column = 0; column < image.getWidth(); column++) {
+                if (Math.abs(column - x + 1) <= y - row - 1) {
+                    sum += image.get(column, row);
+                }
+            }
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2017 Raul Hernandez Lopez @raulh82vlc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.raulh82vlc.face_detection_sample.cascade;
+
+import com.raulh82vlc.face_detection_sample.model.FaceRects;
+
+import org.junit.Test;
+import org.opencv.core.MatOfInt;
+import org.opencv.core.MatOfRect;
+import org.opencv.core.Rect;
+import org.opencv.objdetect.Objdetect;
+
+import java.io.File;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * <p>Checks the grouping against results of OpenCV {@code groupRectangles}, worked out for
+ * small cases and compared with the native one on random hits when the OpenCV native
+ * library is given with {@code -Dreplay.opencvLibrary=/path/libopencv_java3.so}</p>
+ *
+ * @author Raul Hernandez Lopez.
+ */
+public class RectGroupingTest {
+
+    private final RectGrouping grouping = new RectGrouping();
+    private final FaceRects candidates = new FaceRects();
+    private final FaceRects objects = new FaceRects();
+
+    @Test
+    public void keepsCandidatesWithoutMinNeighbors() {
+        candidates.add(10, 10, 40, 40);
+        candidates.add(100, 100, 20, 20);
+
+        grouping.group(candidates, 0, objects);
+
+        assertEquals(2, objects.size());
+        assertRect(objects, 1, 100, 100, 20, 20);
+    }
+
+    @Test
+    public void averagesSimilarHitsAndDropsLoneOnes() {
+        candidates.add(10, 10, 40, 40);
+        candidates.add(12, 10, 40, 40);
+        candidates.add(100, 100, 40, 40);
+        candidates.add(10, 12, 42, 42);
+        candidates.add(12, 12, 42, 42);
+
+        grouping.group(candidates, 3, objects);
+
+        assertEquals(1, objects.size());
+        assertRect(objects, 0, 11, 11, 41, 41);
+    }
+
+    @Test
+    public void dropsClusterWithMinNeighborsHits() {
+        candidates.add(10, 10, 40, 40);
+        candidates.add(11, 10, 40, 40);
+
+        grouping.group(candidates, 2, objects);
+
+        assertEquals(0, objects.size());
+    }
+
+    @Test
+    public void dropsWeakClusterInsideStrongerOne() {
+        for (int i = 0; i < 5; i++) {
+            candidates.add(i, i, 100, 100);
+        }
+        candidates.add(30, 30, 30, 30);
+        candidates.add(31, 30, 30, 30);
+
+        grouping.group(candidates, 1, objects);
+
+        assertEquals(1, objects.size());
+        assertRect(objects, 0, 2, 2, 100, 100);
+    }
+
+    @Test
+    public void keepsClustersInOrderOfTheirFirstHit() {
+        candidates.add(200, 50, 30, 30);
+        candidates.add(10, 10, 40, 40);
+        candidates.add(201, 50, 30, 30);
+        candidates.add(10, 11, 40, 40);
+
+        grouping.group(candidates, 1, objects);
+
+        assertEquals(2, objects.size());
+        assertEquals(200, objects.getX(0), 1);
+        assertEquals(10, objects.getX(1));
+    }
+
+    @Test
+    public void groupsRandomHitsLikeOpenCV() {
+        String library = System.getProperty("replay.opencvLibrary");
+        assumeTrue("No OpenCV native library to compare with",
+                library != null && new File(library).isFile());
+        System.load(new File(library).getAbsolutePath());
+        Random random = new Random(3);
+        for (int round = 0; round < 50; round++) {
+            candidates.clear();
+            // hits scattered around a few objects, as a cascade finds them
+            int objectCount = 1 + random.nextInt(4);
+            for (int object = 0; object < objectCount; object++) {
+                int x = random.nextInt(300);
+                int y = random.nextInt(200);
+                int size = 24 + random.nextInt(100);
+                int hits = random.nextInt(8);
+                for (int hit = 0; hit < hits; hit++) {
+                    int jitter = size / 8;
+                    candidates.add(x + random.nextInt(jitter + 1), y + random.nextInt(jitter + 1),
+                            size + random.nextInt(jitter + 1), size + random.nextInt(jitter + 1));
+                }
+            }
+            int minNeighbors = 1 + random.nextInt(3);
+
+            grouping.group(candidates, minNeighbors, objects);
+
+            Rect[] expected = groupWithOpenCV(candidates, minNeighbors);
+            assertEquals("Objects of round " + round, expected.length, objects.size());
+            for (int i = 0; i < expected.length; i++) {
+                // OpenCV rounds halves to even when averaging
+                assertEquals(expected[i].x, objects.getX(i), 1);
+                assertEquals(expected[i].y, objects.getY(i), 1);
+                assertEquals(expected[i].width, objects.getWidth(i), 1);
+                assertEquals(expected[i].height, objects.getHeight(i), 1);
+            }
+        }
+    }
+
+    private static Rect[] groupWithOpenCV(FaceRects candidates, int minNeighbors) {
+        Rect[] rects = new Rect[candidates.size()];
+        for (int i = 0; i < rects.length; i++) {
+            rects[i] = new Rect(candidates.getX(i), candidates.getY(i),
+                    candidates.getWidth(i), candidates.getHeight(i));
+        }
+        MatOfRect rectList = new MatOfRect(rects);
+        MatOfInt weights = new MatOfInt();
+        try {
+            Objdetect.groupRectangles(rectList, weights, minNeighbors, 0.2);
+            return rectList.toArray();
+        } finally {
+            rectList.release();
+            weights.release();
+        }
+    }
+
+    private static void assertRect(FaceRects rects, int index, int x, int y, int width,
+                                   int height) {
+        assertTrue(index < rects.size());
+        assertEquals(x, rects.getX(index));
+        assertEquals(y, rects.getY(index));
+        assertEquals(width, rects.getWidth(index));
+        assertEquals(height, rects.getHeight(index));
+    }
+}
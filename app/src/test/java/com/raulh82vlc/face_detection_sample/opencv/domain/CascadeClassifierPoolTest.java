@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2017 Raul Hernandez Lopez @raulh82vlc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.raulh82vlc.face_detection_sample.opencv.domain;
+
+import org.junit.After;
+import org.junit.Test;
+import org.opencv.objdetect.CascadeClassifier;
+
+import java.util.Deque;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * <p>Checks a failed load gives its slot back to the pool, so later borrowers load it
+ * again instead of waiting forever. Classifiers are stand-ins, no native library needed</p>
+ *
+ * @author Raul Hernandez Lopez.
+ */
+public class CascadeClassifierPoolTest {
+    private static final long TIMEOUT_SECONDS = 5;
+
+    private final ExecutorService borrower = Executors.newSingleThreadExecutor();
+
+    @After
+    public void tearDown() {
+        borrower.shutdownNow();
+    }
+
+    @Test
+    public void emptyClassifierGivesSlotBack() throws Exception {
+        CascadeClassifier loaded = new FakeClassifier(false);
+        CascadeClassifier reloaded = new FakeClassifier(false);
+        FakeClassifierPool pool = new FakeClassifierPool(loaded, 2);
+        pool.loads.add(new FakeClassifier(true));
+        pool.loads.add(reloaded);
+
+        assertSame(loaded, pool.acquire());
+        try {
+            pool.acquire();
+            fail("Empty classifier lent");
+        } catch (IllegalStateException expected) {
+            // the cascade failed to load
+        }
+
+        assertSame(reloaded, acquireInTime(pool));
+    }
+
+    @Test
+    public void failingConstructionGivesSlotBack() throws Exception {
+        CascadeClassifier reloaded = new FakeClassifier(false);
+        FakeClassifierPool pool = new FakeClassifierPool(new FakeClassifier(false), 2);
+        pool.loads.add(null);
+        pool.loads.add(reloaded);
+        pool.acquire();
+
+        try {
+            pool.loadAll();
+            fail("Failed classifier loaded");
+        } catch (IllegalStateException expected) {
+            // the native constructor threw
+        }
+
+        assertSame(reloaded, acquireInTime(pool));
+    }
+
+    @Test
+    public void loadAllFillsPool() throws Exception {
+        FakeClassifierPool pool = new FakeClassifierPool(new FakeClassifier(false), 3);
+        pool.loads.add(new FakeClassifier(false));
+        pool.loads.add(new FakeClassifier(false));
+
+        pool.loadAll();
+
+        assertNotNull(pool.acquire());
+        assertNotNull(pool.acquire());
+        assertNotNull(pool.acquire());
+        assertEquals(0, pool.loads.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyPool() {
+        new CascadeClassifierPool(new FakeClassifier(false), "cascade.xml", 0);
+    }
+
+    /**
+     * Borrows on another thread, so a pool waiting forever fails the test instead of
+     * hanging it
+     */
+    private CascadeClassifier acquireInTime(final CascadeClassifierPool pool)
+            throws Exception {
+        return borrower.submit(new Callable<CascadeClassifier>() {
+            @Override
+            public CascadeClassifier call() {
+                return pool.acquire();
+            }
+        }).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Pool loading the given classifiers in order, a null one stands for a constructor
+     * throwing
+     */
+    private static class FakeClassifierPool extends CascadeClassifierPool {
+        private final Deque<CascadeClassifier> loads = new LinkedList<>();
+
+        FakeClassifierPool(CascadeClassifier loadedClassifier, int maxSize) {
+            super(loadedClassifier, "cascade.xml", maxSize);
+        }
+
+        @Override
+        protected CascadeClassifier newClassifier(String cascadePath) {
+            if (loads.isEmpty()) {
+                fail("Unexpected load of " + cascadePath);
+            }
+            CascadeClassifier classifier = loads.poll();
+            if (classifier == null) {
+                throw new IllegalStateException("Native load failed");
+            }
+            return classifier;
+        }
+    }
+
+    private static class FakeClassifier extends CascadeClassifier {
+        private final boolean isEmpty;
+
+        FakeClassifier(boolean isEmpty) {
+            super(0);
+            this.isEmpty = isEmpty;
+        }
+
+        @Override
+        public boolean empty() {
+            return isEmpty;
+        }
+
+        @Override
+        protected void finalize() {
+            // no native object to delete
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2017 Raul Hernandez Lopez @raulh82vlc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.raulh82vlc.face_detection_sample.replay;
+
+import com.raulh82vlc.face_detection_sample.cascade.CascadeDetector;
+import com.raulh82vlc.face_detection_sample.cascade.HaarCascade;
+import com.raulh82vlc.face_detection_sample.cascade.HaarCascadeBinary;
+import com.raulh82vlc.face_detection_sample.cascade.HaarCascadeXmlParser;
+import com.raulh82vlc.face_detection_sample.domain.InteractorFrameDroppingExecutor;
+import com.raulh82vlc.face_detection_sample.domain.MainThread;
+import com.raulh82vlc.face_detection_sample.opencv.domain.CascadeClassifierPool;
+import com.raulh82vlc.face_detection_sample.opencv.domain.EyesDetectionInteractorImpl;
+import com.raulh82vlc.face_detection_sample.opencv.domain.FDInteractorImpl;
+import com.raulh82vlc.face_detection_sample.opencv.domain.LKFaceTracker;
+import com.raulh82vlc.face_detection_sample.opencv.domain.detector.CascadeClassifierFaceDetector;
+import com.raulh82vlc.face_detection_sample.opencv.domain.detector.FaceDetector;
+import com.raulh82vlc.face_detection_sample.opencv.domain.detector.FaceDetectorBackend;
+import com.raulh82vlc.face_detection_sample.opencv.domain.detector.JavaCascadeFaceDetector;
+import com.raulh82vlc.face_detection_sample.opencv.domain.detector.TiledCascadeFaceDetector;
+
+import org.junit.Test;
+import org.opencv.objdetect.CascadeClassifier;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * <p>Replays recorded frames through the detection pipeline on the host. Frames, leases and
+ * interactors are OpenCV matrices whatever the face detector backend, so the replay only
+ * runs when the OpenCV native library is given, and is skipped otherwise. The Java
+ * cascade detector alone is covered by {@code CascadeDetectorTest}. The bundled frames,
+ * six 160x120 gray frames of {@code art/openCV.gif} with one face each, are replayed
+ * unless a recording is given, e.g.
+ * {@code ./gradlew :app:testDebugUnitTest -Dreplay.opencvLibrary=/path/libopencv_java3.so
+ * -Dreplay.frames=/path/frames.nv21 -Dreplay.width=640 -Dreplay.height=480}.
+ * Cascades default to the ones of {@code src/main/res/raw}, {@code replay.faceCascade} and
+ * {@code replay.eyeCascade} take others.
+ * Optional {@code replay.format} is NV21 or GRAY, {@code replay.fps} 0 for no pacing
+ * and {@code replay.engine} a face detector backend name, haar by default, lbp with
+ * an LBP face cascade, haar_tiled or lbp_tiled to detect tiles on every core, or java_haar,
+ * which also takes a binary face cascade from {@code app/src/main/assets/cascades}</p>
+ *
+ * @author Raul Hernandez Lopez.
+ */
+public class FrameReplayTest {
+
+    private static final int FRAME_POOL_SIZE = 3;
+    // Interactors release their detectors on their own thread, waited for at the end
+    private static final long RELEASE_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private static final long RELEASE_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    // Bundled frames
+    private static final String BUNDLED_FRAMES = "/replay/faces_160x120.gray";
+    private static final int BUNDLED_WIDTH = 160;
+    private static final int BUNDLED_HEIGHT = 120;
+    // Paths relative to the app module, where unit tests run
+    private static final String FACE_CASCADE_XML =
+            "src/main/res/raw/haarcascade_frontalface_alt2.xml";
+    private static final String EYE_CASCADE_XML =
+            "src/main/res/raw/haarcascade_eye_tree_eyeglasses.xml";
+
+    @Test
+    public void replaysRecordedFramesThroughDetectionPipeline() throws Exception {
+        File opencvLibrary = fileProperty("replay.opencvLibrary");
+        assumeTrue("No OpenCV native library to replay with", opencvLibrary != null);
+        File frames = fileProperty("replay.frames");
+        File faceCascade = fileProperty("replay.faceCascade", FACE_CASCADE_XML);
+        File eyeCascade = fileProperty("replay.eyeCascade", EYE_CASCADE_XML);
+        assumeTrue("No cascades to replay with", faceCascade != null && eyeCascade != null);
+        System.load(opencvLibrary.getAbsolutePath());
+
+        RawFrameFileSource.Format format;
+        int width;
+        int height;
+        if (frames == null) {
+            frames = bundledFrames();
+            format = RawFrameFileSource.Format.GRAY;
+            width = BUNDLED_WIDTH;
+            height = BUNDLED_HEIGHT;
+        } else {
+            format = RawFrameFileSource.Format.valueOf(System.getProperty("replay.format",
+                    RawFrameFileSource.Format.NV21.name()));
+            width = Integer.parseInt(System.getProperty("replay.width", "640"));
+            height = Integer.parseInt(System.getProperty("replay.height", "480"));
+        }
+        float framesPerSecond = Float.parseFloat(System.getProperty("replay.fps", "0"));
+        FaceDetectorBackend faceBackend = FaceDetectorBackend.fromName(
+                System.getProperty("replay.engine", FaceDetectorBackend.HAAR.getName()));
+
+        MainThread mainThread = new SynchronousMainThread();
+        InteractorFrameDroppingExecutor executor = new InteractorFrameDroppingExecutor();
+        ForkJoinPool eyesPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        CascadeClassifierPool detectorsEye = new CascadeClassifierPool(
+                loadClassifier(eyeCascade), eyeCascade.getAbsolutePath(),
+                eyesPool.getParallelism());
+        detectorsEye.loadAll();
+        FaceDetector faceDetector;
+        if (faceBackend == FaceDetectorBackend.JAVA_HAAR) {
+            faceDetector = new JavaCascadeFaceDetector(faceBackend.getName(),
+                    new CascadeDetector(loadCascade(faceCascade), eyesPool),
+                    faceBackend.newParameters());
+        } else if (faceBackend == FaceDetectorBackend.HAAR_TILED
+                || faceBackend == FaceDetectorBackend.LBP_TILED) {
+            CascadeClassifierPool faceClassifiers = new CascadeClassifierPool(
+                    loadClassifier(faceCascade), faceCascade.getAbsolutePath(),
+                    eyesPool.getParallelism() + 1);
+            faceClassifiers.loadAll();
+            faceDetector = new TiledCascadeFaceDetector(faceBackend.getName(), faceClassifiers,
+                    eyesPool, faceBackend.newParameters());
+        } else {
+            faceDetector = new CascadeClassifierFaceDetector(faceBackend.getName(),
+                    loadClassifier(faceCascade), faceBackend.newParameters());
+        }
+        FDInteractorImpl faceInteractor = new FDInteractorImpl(faceDetector, mainThread,
+                executor);
+        faceInteractor.setTrackingMode(true, 10);
+        faceInteractor.setFaceTracker(new LKFaceTracker());
+        faceInteractor.setDetectionScale(0.5f);
+        EyesDetectionInteractorImpl eyesInteractor = new EyesDetectionInteractorImpl(
+                detectorsEye, eyesPool, mainThread, executor);
+
+        FrameReplayer replayer;
+        try {
+            RawFrameFileSource source = new RawFrameFileSource(frames, format, width, height);
+            try {
+                replayer = new FrameReplayer(source, FRAME_POOL_SIZE, faceInteractor,
+                        eyesInteractor);
+                replayer.replay(framesPerSecond);
+            } finally {
+                source.close();
+            }
+        } finally {
+            // the face interactor releases the face detector and its tracker too
+            faceInteractor.release();
+            eyesInteractor.release();
+            awaitIdle(executor);
+            eyesPool.shutdown();
+        }
+        System.out.println("Replay of " + frames.getName() + ": " + replayer);
+        System.out.println("Face detector " + faceDetector);
+
+        assertTrue("No frames in " + frames, replayer.getFramesRead() > 0);
+        assertTrue(replayer.getFaceResults() > 0);
+        assertTrue(replayer.getFaceResults()
+                <= replayer.getFramesRead() - replayer.getFramesSkipped());
+    }
+
+    /**
+     * Waits for the interactor thread to finish every run queued, releases included
+     */
+    private static void awaitIdle(InteractorFrameDroppingExecutor executor) {
+        long deadline = System.nanoTime() + RELEASE_TIMEOUT_NANOS;
+        while (executor.getCompletedCount()
+                < executor.getSubmittedCount() - executor.getDroppedCount()) {
+            assertTrue("Interactors still running", System.nanoTime() < deadline);
+            LockSupport.parkNanos(RELEASE_POLL_NANOS);
+        }
+    }
+
+    private static File fileProperty(String name) {
+        return fileProperty(name, null);
+    }
+
+    private static File fileProperty(String name, String defaultPath) {
+        String path = System.getProperty(name, defaultPath);
+        if (path == null) {
+            return null;
+        }
+        File file = new File(path);
+        return file.isFile() ? file : null;
+    }
+
+    private static File bundledFrames() throws URISyntaxException {
+        return new File(FrameReplayTest.class.getResource(BUNDLED_FRAMES).toURI());
+    }
+
+    private static HaarCascade loadCascade(File cascade) throws IOException {
+        return cascade.getName().endsWith(".bin")
+                ? HaarCascadeBinary.map(cascade) : HaarCascadeXmlParser.parse(cascade);
+    }
+
+    private static CascadeClassifier loadClassifier(File cascade) {
+        CascadeClassifier classifier = new CascadeClassifier(cascade.getAbsolutePath());
+        assertTrue("Failed to load cascade classifier " + cascade, !classifier.empty());
+        return classifier;
+    }
+}
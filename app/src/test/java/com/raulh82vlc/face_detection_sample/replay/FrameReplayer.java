@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2017 Raul Hernandez Lopez @raulh82vlc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.raulh82vlc.face_detection_sample.replay;
+
+import com.raulh82vlc.face_detection_sample.opencv.domain.EyesDetectionInteractor;
+import com.raulh82vlc.face_detection_sample.opencv.domain.FDInteractor;
+import com.raulh82vlc.face_detection_sample.opencv.domain.frame.FaceDetectionResult;
+import com.raulh82vlc.face_detection_sample.opencv.domain.frame.FrameBufferPool;
+import com.raulh82vlc.face_detection_sample.opencv.domain.frame.FrameLease;
+
+import org.opencv.core.Mat;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>Plays a {@link FrameSource} through the detection interactors the same way
+ * the presenter does with camera frames: frames are dropped while every pooled buffer
+ * is busy and eyes are searched on frames with faces. Collects throughput and latency</p>
+ *
+ * @author Raul Hernandez Lopez.
+ */
+public class FrameReplayer implements FDInteractor.FaceCallback,
+        EyesDetectionInteractor.EyesCallback {
+
+    private static final long DRAIN_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final FrameSource source;
+    private final FrameBufferPool framePool;
+    private final int framePoolSize;
+    private final FDInteractor fdInteractor;
+    private final EyesDetectionInteractor eyesDetectionInteractor;
+    // Counters
+    private long framesRead = 0;
+    private long framesSkipped = 0;
+    private long elapsedNanos = 0;
+    private final AtomicLong faceResults = new AtomicLong();
+    private final AtomicLong framesWithFaces = new AtomicLong();
+    private final AtomicLong eyesResults = new AtomicLong();
+    private final AtomicLong totalLatencyNanos = new AtomicLong();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+    public FrameReplayer(FrameSource source, int framePoolSize, FDInteractor fdInteractor,
+                         EyesDetectionInteractor eyesDetectionInteractor) {
+        this.source = source;
+        this.framePoolSize = framePoolSize;
+        this.framePool = new FrameBufferPool(framePoolSize);
+        this.fdInteractor = fdInteractor;
+        this.eyesDetectionInteractor = eyesDetectionInteractor;
+    }
+
+    /**
+     * Feeds every frame of the source and waits until all of them went through the pipeline
+     *
+     * @param framesPerSecond camera rate to simulate, 0 to feed frames as fast as possible
+     */
+    public void replay(float framesPerSecond) throws IOException {
+        if (framesPerSecond < 0) {
+            throw new IllegalArgumentException("Frame rate must not be negative");
+        }
+        long frameIntervalNanos = framesPerSecond > 0
+                ? (long) (TimeUnit.SECONDS.toNanos(1) / framesPerSecond) : 0;
+        Mat gray = new Mat();
+        eyesDetectionInteractor.setRunningStatus(true);
+        long start = System.nanoTime();
+        long nextFrameTime = start;
+        try {
+            while (source.nextFrame(gray)) {
+                framesRead++;
+                FrameLease frame = framePool.obtain(gray);
+                if (frame != null) {
+                    fdInteractor.execute(frame, this);
+                } else {
+                    framesSkipped++;
+                }
+                if (frameIntervalNanos > 0) {
+                    nextFrameTime += frameIntervalNanos;
+                    long waitNanos = nextFrameTime - System.nanoTime();
+                    if (waitNanos > 0) {
+                        LockSupport.parkNanos(waitNanos);
+                    }
+                }
+            }
+            awaitDrain();
+            elapsedNanos = System.nanoTime() - start;
+        } finally {
+            eyesDetectionInteractor.setRunningStatus(false);
+            framePool.release();
+            gray.release();
+        }
+    }
+
+    @Override
+    public void onFacesDetected(FaceDetectionResult result) {
+        long latency = System.nanoTime() - result.getTimestampNanos();
+        faceResults.incrementAndGet();
+        totalLatencyNanos.addAndGet(latency);
+        long max = maxLatencyNanos.get();
+        while (latency > max && !maxLatencyNanos.compareAndSet(max, latency)) {
+            max = maxLatencyNanos.get();
+        }
+        if (result.getFaces().size() > 0) {
+            framesWithFaces.incrementAndGet();
+            eyesDetectionInteractor.execute(result, this);
+        } else {
+            result.getFrame().release();
+        }
+    }
+
+    @Override
+    public void onEyesDetected(String methodForEyes) {
+        eyesResults.incrementAndGet();
+    }
+
+    private void awaitDrain() {
+        while (framePool.getFreeCount() < framePoolSize) {
+            LockSupport.parkNanos(DRAIN_POLL_NANOS);
+        }
+    }
+
+    public long getFramesRead() {
+        return framesRead;
+    }
+
+    /**
+     * @return frames dropped because every pooled buffer was still in use
+     */
+    public long getFramesSkipped() {
+        return framesSkipped;
+    }
+
+    public long getFaceResults() {
+        return faceResults.get();
+    }
+
+    public long getFramesWithFaces() {
+        return framesWithFaces.get();
+    }
+
+    public long getEyesResults() {
+        return eyesResults.get();
+    }
+
+    public double getResultsPerSecond() {
+        return elapsedNanos > 0
+                ? faceResults.get() * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos : 0;
+    }
+
+    /**
+     * @return mean time from copying a frame to delivering its faces, in milliseconds
+     */
+    public double getMeanLatencyMillis() {
+        long results = faceResults.get();
+        return results > 0 ? totalLatencyNanos.get() / (results * 1e6) : 0;
+    }
+
+    public double getMaxLatencyMillis() {
+        return maxLatencyNanos.get() / 1e6;
+    }
+
+    @Override
+    public String toString() {
+        return "frames read: " + framesRead
+                + ", skipped: " + framesSkipped
+                + ", face results: " + getFaceResults()
+                + " (" + String.format("%.1f", getResultsPerSecond()) + "/s)"
+                + ", with faces: " + getFramesWithFaces()
+                + ", eyes results: " + getEyesResults()
+                + ", latency mean: " + String.format("%.1f", getMeanLatencyMillis()) + " ms"
+                + ", max: " + String.format("%.1f", getMaxLatencyMillis()) + " ms";
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2017 Raul Hernandez Lopez @raulh82vlc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.raulh82vlc.face_detection_sample.replay;
+
+import org.opencv.core.Mat;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Source of camera-like frames feeding the detection pipeline without a camera
+ * @author Raul Hernandez Lopez.
+ */
+public interface FrameSource extends Closeable {
+    /**
+     * Fills the next gray frame, the matrix is reused across calls like the camera one
+     *
+     * @return false when there are no more frames
+     */
+    boolean nextFrame(Mat gray) throws IOException;
+
+    int getWidth();
+
+    int getHeight();
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2017 Raul Hernandez Lopez @raulh82vlc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.raulh82vlc.face_detection_sample.replay;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * <p>Reads frames recorded back to back in a single raw file, either NV21 preview frames
+ * as delivered by the camera or plain 8 bit gray frames</p>
+ *
+ * @author Raul Hernandez Lopez.
+ */
+public class RawFrameFileSource implements FrameSource {
+
+    public enum Format {
+        NV21,
+        GRAY
+    }
+
+    private final DataInputStream input;
+    private final int width;
+    private final int height;
+    // Buffers reused for every frame
+    private final byte[] frameBytes;
+    private final Mat frameMat;
+    private final Mat frameGray;
+
+    public RawFrameFileSource(File file, Format format, int width, int height)
+            throws IOException {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Frame size must be positive");
+        }
+        this.width = width;
+        this.height = height;
+        if (format == Format.NV21) {
+            frameMat = new Mat(height + height / 2, width, CvType.CV_8UC1);
+            frameGray = frameMat.submat(0, height, 0, width);
+        } else {
+            frameMat = new Mat(height, width, CvType.CV_8UC1);
+            frameGray = frameMat;
+        }
+        frameBytes = new byte[(int) frameMat.total()];
+        input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    }
+
+    @Override
+    public boolean nextFrame(Mat gray) throws IOException {
+        try {
+            input.readFully(frameBytes);
+        } catch (EOFException e) {
+            return false;
+        }
+        frameMat.put(0, 0, frameBytes);
+        frameGray.copyTo(gray);
+        return true;
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+        if (frameGray != frameMat) {
+            frameGray.release();
+        }
+        frameMat.release();
+    }
+}
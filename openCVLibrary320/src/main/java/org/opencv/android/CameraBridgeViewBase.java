@@ -46,6 +46,7 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
     protected int mMaxWidth;
     protected float mScale = 0;
     protected int mPreviewFormat = RGBA;
+    protected int mFramePlanes = 0;
     protected int mCameraIndex = CAMERA_ID_ANY;
     protected boolean mEnabled;
     protected FpsMeter mFpsMeter = null;
@@ -55,6 +56,8 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
     public static final int CAMERA_ID_FRONT = 98;
     public static final int RGBA = 1;
     public static final int GRAY = 2;
+    public static final int FRAME_PLANE_GRAY = 1;
+    public static final int FRAME_PLANE_RGBA = 2;
 
     public CameraBridgeViewBase(Context context, int cameraId) {
         super(context);
@@ -176,6 +179,8 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
     /**
      * This class interface is abstract representation of single frame from camera for onCameraFrame callback
      * Attention: Do not use objects, that represents this interface out of onCameraFrame callback!
+     * Planes are converted the first time they are asked for and cached for the rest of the
+     * frame, so asking again for the same frame costs nothing.
      */
     public interface CvCameraViewFrame {
 
@@ -270,6 +275,34 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
         mListener = adapter;
     }
 
+    /**
+     * This method declares which planes the listener reads from every frame, a combination
+     * of the FRAME_PLANE_ flags. Buffers of the declared planes are allocated up front when
+     * the camera is connected and no plane is converted unless it is asked for, so a
+     * listener declaring only the gray plane never pays for the NV21 to RGBA conversion.
+     * Without FRAME_PLANE_RGBA and without a listener, frames are drawn in gray.
+     * It has to be called before the view is enabled, in any order with the listener and
+     * the capture format.
+     * @param planes - the planes needed by the listener
+     */
+    public void setFramePlanes(int planes) {
+        mFramePlanes = planes;
+    }
+
+    /**
+     * This method returns the planes to prepare for every frame: the declared ones, merged
+     * with the plane of the capture format an old style listener is given. Without planes
+     * declared, both gray and rgba as before.
+     */
+    protected int getFramePlanes() {
+        int planes = mFramePlanes;
+        if (mListener instanceof CvCameraViewListenerAdapter)
+            planes |= mPreviewFormat == GRAY ? FRAME_PLANE_GRAY : FRAME_PLANE_RGBA;
+        else if (planes == 0)
+            planes = FRAME_PLANE_GRAY | FRAME_PLANE_RGBA;
+        return planes;
+    }
+
     /**
      * This method sets the maximum size that camera frame is allowed to be. When selecting
      * size - the biggest size which less or equal the size set will be selected.
@@ -390,8 +423,10 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
 
         if (mListener != null) {
             modified = mListener.onCameraFrame(frame);
-        } else {
+        } else if ((getFramePlanes() & FRAME_PLANE_RGBA) != 0) {
             modified = frame.rgba();
+        } else {
+            modified = frame.gray();
         }
 
         boolean bmpValid = true;
@@ -0,0 +1,46 @@
+package org.opencv.android;
+
+import org.opencv.core.Mat;
+
+/**
+ * Ring of preallocated camera frames between the camera callback and the camera worker
+ * thread, handed over lock-free by {@link FrameSlotRing}. Each slot owns a frame, which is
+ * only written by the producer between {@link #claim()} and {@link #publish(int)}, and only
+ * read by the consumer between {@link #take()} and {@link #release(int)}.
+ */
+class CameraFrameRing extends FrameSlotRing {
+
+    private final Mat[] mFrames;
+
+    /**
+     * @param size frames of the ring, at least 2 so the producer always finds a slot while
+     *             the consumer reads another one
+     */
+    CameraFrameRing(int size, int rows, int cols, int type) {
+        super(size);
+        mFrames = new Mat[size];
+        for (int i = 0; i < size; i++)
+            mFrames[i] = new Mat(rows, cols, type);
+    }
+
+    Mat frame(int slot) {
+        return mFrames[slot];
+    }
+
+    /**
+     * Copies a frame into the ring, producer side, it never blocks.
+     */
+    void put(byte[] data) {
+        int slot = claim();
+        mFrames[slot].put(0, 0, data);
+        publish(slot);
+    }
+
+    /**
+     * Frees the frames, once neither side uses the ring anymore.
+     */
+    void releaseFrames() {
+        for (Mat frame : mFrames)
+            frame.release();
+    }
+}
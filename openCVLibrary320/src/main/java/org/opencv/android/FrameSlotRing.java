@@ -0,0 +1,151 @@
+package org.opencv.android;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock-free ring of frame slots between a single producer, the camera callback, and a single
+ * consumer, the camera worker thread. It only hands the slots over, the frames themselves
+ * are kept by {@link CameraFrameRing}, so the hand over runs on a plain JVM.
+ * Every slot goes FREE -> WRITING -> READY -> READING -> FREE and its state is only ever
+ * changed with atomic operations, so neither side takes a lock. The producer never blocks:
+ * when there is no free slot it overwrites the oldest frame not read yet and counts it as
+ * dropped. The consumer takes the ready frames in sequence order and parks while there
+ * are none.
+ */
+class FrameSlotRing {
+
+    private static final int FREE = 0;
+    private static final int WRITING = 1;
+    private static final int READY = 2;
+    private static final int READING = 3;
+
+    private final AtomicIntegerArray mStates;
+    private final AtomicLongArray mSequences;
+    private final AtomicLong mDroppedFrames = new AtomicLong();
+    private long mNextSequence = 0;
+    private volatile Thread mConsumer;
+
+    /**
+     * @param size slots of the ring, at least 2 so the producer always finds a slot while
+     *             the consumer reads another one
+     */
+    FrameSlotRing(int size) {
+        if (size < 2)
+            throw new IllegalArgumentException("Frame ring needs at least 2 frames");
+        mStates = new AtomicIntegerArray(size);
+        mSequences = new AtomicLongArray(size);
+    }
+
+    int size() {
+        return mStates.length();
+    }
+
+    /**
+     * @return sequence number of the frame in the slot, only valid while it is being read
+     */
+    long sequence(int slot) {
+        return mSequences.get(slot);
+    }
+
+    /**
+     * @return frames overwritten before the consumer could read them
+     */
+    long getDroppedFrames() {
+        return mDroppedFrames.get();
+    }
+
+    /**
+     * Claims a slot to write the next frame into, producer side, it never blocks.
+     * @return slot to be handed to the consumer with {@link #publish(int)}
+     */
+    int claim() {
+        while (true) {
+            // only the producer takes free slots, so there is no race on them
+            int slot = firstFree();
+            if (slot >= 0) {
+                mStates.set(slot, WRITING);
+                return slot;
+            }
+            // fails when the consumer has just taken it, then it gives another one back
+            slot = oldest(READY);
+            if (slot >= 0 && mStates.compareAndSet(slot, READY, WRITING)) {
+                mDroppedFrames.incrementAndGet();
+                return slot;
+            }
+        }
+    }
+
+    /**
+     * Hands a written slot to the consumer, waking it up.
+     */
+    void publish(int slot) {
+        mSequences.set(slot, mNextSequence++);
+        mStates.set(slot, READY);
+        wakeUp();
+    }
+
+    /**
+     * Takes the oldest ready frame, consumer side, parking until there is one.
+     * @return slot of the frame to be given back with {@link #release(int)}, or -1 when the
+     * consumer was woken up with no frame, e.g. to be stopped
+     */
+    int take() {
+        mConsumer = Thread.currentThread();
+        int slot = poll();
+        if (slot < 0) {
+            LockSupport.park(this);
+            slot = poll();
+        }
+        return slot;
+    }
+
+    /**
+     * Gives a frame taken by the consumer back to the producer.
+     */
+    void release(int slot) {
+        mStates.set(slot, FREE);
+    }
+
+    /**
+     * Wakes the consumer up if it is waiting for a frame, e.g. to stop it.
+     */
+    void wakeUp() {
+        Thread consumer = mConsumer;
+        if (consumer != null)
+            LockSupport.unpark(consumer);
+    }
+
+    private int poll() {
+        while (true) {
+            int slot = oldest(READY);
+            if (slot < 0)
+                return -1;
+            // fails when the producer has just claimed it to overwrite it
+            if (mStates.compareAndSet(slot, READY, READING))
+                return slot;
+        }
+    }
+
+    private int firstFree() {
+        for (int i = 0; i < mStates.length(); i++) {
+            if (mStates.get(i) == FREE)
+                return i;
+        }
+        return -1;
+    }
+
+    private int oldest(int state) {
+        int slot = -1;
+        long sequence = Long.MAX_VALUE;
+        for (int i = 0; i < mStates.length(); i++) {
+            if (mStates.get(i) == state && mSequences.get(i) < sequence) {
+                slot = i;
+                sequence = mSequences.get(i);
+            }
+        }
+        return slot;
+    }
+}
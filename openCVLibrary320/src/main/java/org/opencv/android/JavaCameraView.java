@@ -1,6 +1,7 @@
 package org.opencv.android;
 
 import java.util.List;
+import java.util.concurrent.locks.LockSupport;
 
 import android.content.Context;
 import android.graphics.ImageFormat;
@@ -31,12 +32,14 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
 
     private static final int MAGIC_TEXTURE_ID = 10;
     private static final String TAG = "JavaCameraView";
+    // frames between the camera callback and the worker, one being read, one being written
+    // and one ready
+    private static final int FRAME_RING_SIZE = 3;
 
     private byte mBuffer[];
-    private Mat[] mFrameChain;
-    private int mChainIdx = 0;
+    private volatile CameraFrameRing mFrameRing;
     private Thread mThread;
-    private boolean mStopThread;
+    private volatile boolean mStopThread;
 
     protected Camera mCamera;
     protected JavaCameraFrame[] mCameraFrame;
@@ -180,15 +183,15 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
                     mCamera.addCallbackBuffer(mBuffer);
                     mCamera.setPreviewCallbackWithBuffer(this);
 
-                    mFrameChain = new Mat[2];
-                    mFrameChain[0] = new Mat(mFrameHeight + (mFrameHeight/2), mFrameWidth, CvType.CV_8UC1);
-                    mFrameChain[1] = new Mat(mFrameHeight + (mFrameHeight/2), mFrameWidth, CvType.CV_8UC1);
+                    CameraFrameRing frameRing = new CameraFrameRing(FRAME_RING_SIZE,
+                            mFrameHeight + (mFrameHeight/2), mFrameWidth, CvType.CV_8UC1);
 
                     AllocateCache();
 
-                    mCameraFrame = new JavaCameraFrame[2];
-                    mCameraFrame[0] = new JavaCameraFrame(mFrameChain[0], mFrameWidth, mFrameHeight);
-                    mCameraFrame[1] = new JavaCameraFrame(mFrameChain[1], mFrameWidth, mFrameHeight);
+                    mCameraFrame = new JavaCameraFrame[frameRing.size()];
+                    for (int i = 0; i < mCameraFrame.length; i++)
+                        mCameraFrame[i] = new JavaCameraFrame(frameRing.frame(i), mFrameWidth, mFrameHeight, getFramePlanes());
+                    mFrameRing = frameRing;
 
                     if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
                         mSurfaceTexture = new SurfaceTexture(MAGIC_TEXTURE_ID);
@@ -220,18 +223,27 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
                 mCamera.release();
             }
             mCamera = null;
-            if (mFrameChain != null) {
-                mFrameChain[0].release();
-                mFrameChain[1].release();
+            CameraFrameRing frameRing = mFrameRing;
+            mFrameRing = null;
+            if (frameRing != null) {
+                Log.d(TAG, "Frames dropped by the frame ring: " + frameRing.getDroppedFrames());
+                frameRing.releaseFrames();
             }
             if (mCameraFrame != null) {
-                mCameraFrame[0].release();
-                mCameraFrame[1].release();
+                for (JavaCameraFrame cameraFrame : mCameraFrame)
+                    cameraFrame.release();
             }
         }
     }
 
-    private boolean mCameraFrameReady = false;
+    /**
+     * @return camera frames overwritten before the worker thread could deliver them, since
+     * the camera was connected
+     */
+    public long getDroppedFrames() {
+        CameraFrameRing frameRing = mFrameRing;
+        return frameRing != null ? frameRing.getDroppedFrames() : 0;
+    }
 
     @Override
     protected boolean connectCamera(int width, int height) {
@@ -244,8 +256,6 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
         if (!initializeCamera(width, height))
             return false;
 
-        mCameraFrameReady = false;
-
         /* now we can start update thread */
         Log.d(TAG, "Starting processing thread");
         mStopThread = false;
@@ -264,9 +274,8 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
         try {
             mStopThread = true;
             Log.d(TAG, "Notify thread");
-            synchronized (this) {
-                this.notify();
-            }
+            if (mThread != null)
+                LockSupport.unpark(mThread);
             Log.d(TAG, "Wating for thread");
             if (mThread != null)
                 mThread.join();
@@ -278,49 +287,66 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
 
         /* Now release camera */
         releaseCamera();
-
-        mCameraFrameReady = false;
     }
 
     @Override
     public void onPreviewFrame(byte[] frame, Camera arg1) {
         if (BuildConfig.DEBUG)
             Log.d(TAG, "Preview Frame received. Frame size: " + frame.length);
-        synchronized (this) {
-            mFrameChain[mChainIdx].put(0, 0, frame);
-            mCameraFrameReady = true;
-            this.notify();
-        }
+        CameraFrameRing frameRing = mFrameRing;
+        if (frameRing != null)
+            frameRing.put(frame);
         if (mCamera != null)
             mCamera.addCallbackBuffer(mBuffer);
     }
 
+    /**
+     * Frame of a ring slot, its planes are converted from the NV21 data on demand and cached
+     * until the slot holds a frame with another sequence number.
+     */
     private class JavaCameraFrame implements CvCameraViewFrame {
         @Override
         public Mat gray() {
-            return mYuvFrameData.submat(0, mHeight, 0, mWidth);
+            return mGray;
         }
 
         @Override
         public Mat rgba() {
-            Imgproc.cvtColor(mYuvFrameData, mRgba, Imgproc.COLOR_YUV2RGBA_NV21, 4);
+            if (mRgbaSequence != mSequence) {
+                Imgproc.cvtColor(mYuvFrameData, mRgba, Imgproc.COLOR_YUV2RGBA_NV21, 4);
+                mRgbaSequence = mSequence;
+            }
             return mRgba;
         }
 
-        public JavaCameraFrame(Mat Yuv420sp, int width, int height) {
+        public JavaCameraFrame(Mat Yuv420sp, int width, int height, int planes) {
             super();
             mWidth = width;
             mHeight = height;
             mYuvFrameData = Yuv420sp;
+            mGray = mYuvFrameData.submat(0, mHeight, 0, mWidth);
             mRgba = new Mat();
+            if ((planes & FRAME_PLANE_RGBA) != 0)
+                mRgba.create(mHeight, mWidth, CvType.CV_8UC4);
+        }
+
+        /**
+         * The slot holds a new frame, cached planes are no longer valid
+         */
+        public void setSequence(long sequence) {
+            mSequence = sequence;
         }
 
         public void release() {
+            mGray.release();
             mRgba.release();
         }
 
         private Mat mYuvFrameData;
+        private Mat mGray;
         private Mat mRgba;
+        private long mSequence = -1;
+        private long mRgbaSequence = -1;
         private int mWidth;
         private int mHeight;
     };
@@ -329,27 +355,22 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
 
         @Override
         public void run() {
+            CameraFrameRing frameRing = mFrameRing;
+            if (frameRing == null) {
+                // camera released before the thread started, there are no frames to deliver
+                Log.d(TAG, "No frame ring, finish processing thread");
+                return;
+            }
             do {
-                boolean hasFrame = false;
-                synchronized (JavaCameraView.this) {
-                    try {
-                        while (!mCameraFrameReady && !mStopThread) {
-                            JavaCameraView.this.wait();
-                        }
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
-                    if (mCameraFrameReady)
-                    {
-                        mChainIdx = 1 - mChainIdx;
-                        mCameraFrameReady = false;
-                        hasFrame = true;
-                    }
-                }
-
-                if (!mStopThread && hasFrame) {
-                    if (!mFrameChain[1 - mChainIdx].empty())
-                        deliverAndDrawFrame(mCameraFrame[1 - mChainIdx]);
+                int slot = frameRing.take();
+                if (slot < 0)
+                    continue;
+                try {
+                    mCameraFrame[slot].setSequence(frameRing.sequence(slot));
+                    if (!mStopThread && !frameRing.frame(slot).empty())
+                        deliverAndDrawFrame(mCameraFrame[slot]);
+                } finally {
+                    frameRing.release(slot);
                 }
             } while (!mStopThread);
             Log.d(TAG, "Finish processing thread");
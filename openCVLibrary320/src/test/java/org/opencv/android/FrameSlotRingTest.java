@@ -0,0 +1,132 @@
+package org.opencv.android;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Hand over of {@link FrameSlotRing} slots on a plain JVM, with the producer side on the test
+ * thread and, for the wake up checks, the consumer side on another thread.
+ */
+public class FrameSlotRingTest {
+
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    @Test
+    public void takesFramesInSequenceOrder() {
+        FrameSlotRing ring = new FrameSlotRing(3);
+        int first = put(ring);
+        int second = put(ring);
+
+        assertEquals(first, ring.take());
+        assertEquals(0, ring.sequence(first));
+        ring.release(first);
+        assertEquals(second, ring.take());
+        assertEquals(1, ring.sequence(second));
+        ring.release(second);
+        assertEquals(0, ring.getDroppedFrames());
+    }
+
+    @Test
+    public void overwritesOldestFrameWhenFull() {
+        FrameSlotRing ring = new FrameSlotRing(3);
+        int oldest = put(ring);
+        put(ring);
+        put(ring);
+
+        int overwritten = put(ring);
+
+        assertEquals(oldest, overwritten);
+        assertEquals(1, ring.getDroppedFrames());
+        for (long sequence = 1; sequence <= 3; sequence++) {
+            int slot = ring.take();
+            assertEquals(sequence, ring.sequence(slot));
+            ring.release(slot);
+        }
+    }
+
+    @Test
+    public void neverOverwritesFrameBeingRead() {
+        FrameSlotRing ring = new FrameSlotRing(3);
+        put(ring);
+        int reading = ring.take();
+
+        // the two other slots take turns while the first one is being read
+        for (int i = 0; i < 10; i++)
+            assertTrue(put(ring) != reading);
+
+        assertEquals(10 - 2, ring.getDroppedFrames());
+        assertEquals(0, ring.sequence(reading));
+        ring.release(reading);
+        int newest = ring.take();
+        assertEquals(9, ring.sequence(newest));
+    }
+
+    @Test
+    public void takeWakesUpWhenFrameIsPut() throws InterruptedException {
+        final FrameSlotRing ring = new FrameSlotRing(2);
+        final AtomicInteger taken = new AtomicInteger(-2);
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                int slot;
+                // a spurious wake up gives no frame, the consumer then waits again
+                do {
+                    slot = ring.take();
+                } while (slot < 0);
+                taken.set(slot);
+            }
+        });
+        consumer.start();
+        waitUntilParked(consumer);
+
+        int slot = put(ring);
+
+        consumer.join(TIMEOUT_MILLIS);
+        assertFalse("Consumer still waiting for a frame", consumer.isAlive());
+        assertEquals(slot, taken.get());
+    }
+
+    @Test
+    public void takeReturnsNoFrameWhenWokenUpToStop() throws InterruptedException {
+        final FrameSlotRing ring = new FrameSlotRing(2);
+        final AtomicInteger taken = new AtomicInteger(-2);
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                taken.set(ring.take());
+            }
+        });
+        consumer.start();
+        waitUntilParked(consumer);
+
+        ring.wakeUp();
+
+        consumer.join(TIMEOUT_MILLIS);
+        assertFalse("Consumer still waiting for a frame", consumer.isAlive());
+        assertEquals(-1, taken.get());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsRingOfOneFrame() {
+        new FrameSlotRing(1);
+    }
+
+    private static int put(FrameSlotRing ring) {
+        int slot = ring.claim();
+        ring.publish(slot);
+        return slot;
+    }
+
+    private static void waitUntilParked(Thread consumer) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (consumer.getState() != Thread.State.WAITING
+                && System.currentTimeMillis() < deadline)
+            Thread.sleep(1);
+        assertEquals(Thread.State.WAITING, consumer.getState());
+    }
+}